@@ -0,0 +1,39 @@
+package admobilize.matrix.gt.XC3Sprog;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.google.android.things.pio.PeripheralManagerService;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the {@link BitstreamBenchmark} on the board and logs the result. Reprograms the
+ * FPGA, so stop the app first. The exec leg is left out: xc3sprog drives the same JTAG
+ * pins as the {@link GpioJtagCable}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BitstreamBenchmarkTest {
+
+    private static final String TAG = BitstreamBenchmarkTest.class.getSimpleName();
+    private static final int RUNS = 5;
+
+    @Test
+    public void copyVersusStream() throws IOException {
+        GpioJtagCable cable = new GpioJtagCable(new PeripheralManagerService());
+        try {
+            BitstreamBenchmark.Result result = BitstreamBenchmark.run(
+                    InstrumentationRegistry.getTargetContext(), cable, null, RUNS);
+            Log.i(TAG, result.toString());
+            assertEquals(RUNS, result.runs);
+        } finally {
+            cable.close();
+        }
+    }
+}
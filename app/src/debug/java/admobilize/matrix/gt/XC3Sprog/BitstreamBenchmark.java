@@ -0,0 +1,137 @@
+package admobilize.matrix.gt.XC3Sprog;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Compares the ways of getting the bundled bitstream into the FPGA:
+ * <ul>
+ * <li>copy: the assets are copied to the files dir through a 4 KB buffer, as the boot
+ * did, and the programmer reads the copy back</li>
+ * <li>stream: the asset is mapped from the APK and streamed into the programmer</li>
+ * <li>exec: the copy followed by a xc3sprog run, the original boot path (only with a
+ * {@link MatrixInitializer} whose pins are configured, on the board)</li>
+ * </ul>
+ * Each leg is timed from the asset to a configured FPGA through {@code cable}; with a
+ * {@link GpioJtagCable} the numbers are end-to-end.
+ * <p>
+ * Needs a {@link Context}, so it runs on the device; only debug builds include it.
+ * BitstreamBenchmarkTest runs it: {@code ./gradlew connectedDebugAndroidTest}.
+ */
+
+public class BitstreamBenchmark {
+
+    private static final String COPY_PREFIX = "benchmark-";
+
+    public static Result run(Context ctx, JtagCable cable, MatrixInitializer exec, int runs)
+            throws IOException {
+        File copy = new File(ctx.getFilesDir(), COPY_PREFIX + MatrixInitializer.MATRIX_FIRWARE_ASSETS_PATH);
+        JtagProgrammer programmer = new JtagProgrammer(cable);
+        programmer.detectChain();
+
+        long copyNanos = 0;
+        long streamNanos = 0;
+        long execNanos = 0;
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            copyThenProgram(ctx.getAssets().open(MatrixInitializer.MATRIX_FIRWARE_ASSETS_PATH),
+                    copy, programmer);
+            copyNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            streamThenProgram(MatrixInitializer.mapAsset(ctx.getAssets(),
+                    MatrixInitializer.MATRIX_FIRWARE_ASSETS_PATH), programmer);
+            streamNanos += System.nanoTime() - start;
+
+            if (exec != null) {
+                start = System.nanoTime();
+                copyThenExec(ctx, exec);
+                execNanos += System.nanoTime() - start;
+            }
+        }
+        if (!copy.delete()) copy.deleteOnExit();
+        return new Result(runs, copyNanos, streamNanos, exec == null ? -1 : execNanos);
+    }
+
+    /**
+     * Copy {@code asset} to {@code copy}, then program the FPGA from the copy.
+     */
+    public static void copyThenProgram(InputStream asset, File copy, JtagProgrammer programmer)
+            throws IOException {
+        copy(asset, copy);
+        BitFile bit = BitFile.open(new BufferedInputStream(new FileInputStream(copy)));
+        try {
+            programmer.program(bit);
+        } finally {
+            bit.close();
+        }
+    }
+
+    /**
+     * Program the FPGA straight from the mapped {@code bitFile}.
+     */
+    public static void streamThenProgram(ByteBuffer bitFile, JtagProgrammer programmer)
+            throws IOException {
+        BitFile bit = BitFile.open(bitFile);
+        try {
+            programmer.program(bit);
+        } finally {
+            bit.close();
+        }
+    }
+
+    private static void copyThenExec(Context ctx, MatrixInitializer exec) throws IOException {
+        copy(ctx.getAssets().open(MatrixInitializer.XC3SPROG_ASSETS_PATH),
+                new File(ctx.getFilesDir(), MatrixInitializer.XC3SPROG_ASSETS_PATH));
+        copy(ctx.getAssets().open(MatrixInitializer.MATRIX_FIRWARE_ASSETS_PATH),
+                new File(ctx.getFilesDir(), MatrixInitializer.MATRIX_FIRWARE_ASSETS_PATH));
+        if (!exec.loadFirmware()) throw new IOException("xc3sprog failed");
+    }
+
+    private static void copy(InputStream in, File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            byte[] buffer = new byte[4096];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    public static class Result {
+        public final int runs;
+        public final long copyNanos;
+        public final long streamNanos;
+        public final long execNanos;  // -1 when not run
+
+        Result(int runs, long copyNanos, long streamNanos, long execNanos) {
+            this.runs = runs;
+            this.copyNanos = copyNanos;
+            this.streamNanos = streamNanos;
+            this.execNanos = execNanos;
+        }
+
+        private double perRun(long nanos) {
+            return runs == 0 ? 0 : nanos / 1e6 / runs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("runs: %d\tcopy+program: %.1f ms\tstream+program: %.1f ms\tcopy+exec: %s",
+                    runs, perRun(copyNanos), perRun(streamNanos),
+                    execNanos < 0 ? "-" : String.format("%.1f ms", perRun(execNanos)));
+        }
+    }
+}
@@ -4,5 +4,6 @@ package admobilize.matrix.gt;
  * Created by Antonio Vanegas @hpsaturn on 12/19/16.
  */
 public class Config {
+    // compile time switch, MainActivity sensor telemetry follows the log.tag.MainActivity property
     public static final boolean DEBUG = true;
 }
@@ -25,19 +25,34 @@ import android.util.Log;
 import com.google.android.things.pio.PeripheralManagerService;
 import com.google.android.things.pio.SpiDevice;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
+import admobilize.matrix.gt.XC3Sprog.BootTimer;
 import admobilize.matrix.gt.XC3Sprog.MatrixInitializer;
+import admobilize.matrix.gt.matrix.DoaEngine;
 import admobilize.matrix.gt.matrix.Everloop;
+import admobilize.matrix.gt.matrix.EverloopRenderer;
 import admobilize.matrix.gt.matrix.Humidity;
 import admobilize.matrix.gt.matrix.IMU;
+import admobilize.matrix.gt.matrix.ImuRingBuffer;
+import admobilize.matrix.gt.matrix.LedFrame;
+import admobilize.matrix.gt.matrix.MicArray;
+import admobilize.matrix.gt.matrix.MicArrayCapture;
+import admobilize.matrix.gt.matrix.PcmBlock;
 import admobilize.matrix.gt.matrix.Pressure;
+import admobilize.matrix.gt.matrix.SensorLogger;
+import admobilize.matrix.gt.matrix.SensorSampler;
+import admobilize.matrix.gt.matrix.SensorScheduler;
+import admobilize.matrix.gt.matrix.SensorSnapshot;
+import admobilize.matrix.gt.matrix.TelemetryFormatter;
 import admobilize.matrix.gt.matrix.UV;
 import admobilize.matrix.gt.matrix.Wishbone;
-
-import static admobilize.matrix.gt.matrix.Everloop.*;
+import admobilize.matrix.gt.matrix.WishboneMetrics;
 
 /**
  * Sample usage of the Matrix-Creator sensors and GPIO calls
@@ -55,57 +70,183 @@ public class MainActivity extends Activity{
     private static final boolean DEBUG = Config.DEBUG;
 
     private boolean SHOW_EVERLOOP_PROGRESS = true;
+    // needs a FPGA image with the microphone array enabled
+    private boolean SHOW_SOUND_DIRECTION = false;
+    // program the FPGA at startup, see MatrixInitializer
+    private static final boolean FLASH_FPGA = false;
+    // binary log of every sensor sample, export it with SensorLogReader.exportCsv
+    private boolean LOG_SENSORS = false;
     private static final int INTERVAL_POLLING_MS = 10;
+    private static final int EVERLOOP_FRAME_RATE = 60;
+    private static final int IMU_HISTORY_SAMPLES = 512;  // ~5 s at 100 Hz
+    private static final int METRICS_LOG_TICKS = 1000;   // ~10 s of polling
+    private static final int TELEMETRY_INTERVAL_MS = 1000;
+    private static final int SENSOR_LOG_SEGMENT_RECORDS = 60000;  // ~10 min at 100 Hz, ~5 MB
+    private static final int SENSOR_LOG_SEGMENTS = 6;
 
     private Handler mHandler = new Handler();
-    private SpiDevice spiDevice;
-
-    private Wishbone wb;
-    private Everloop everloop;
-    private Pressure pressure;
-    private Humidity humidity;
-    private IMU imuSensor;
-    private UV uvSensor;
+    // set by the startup stages
+    private volatile SpiDevice spiDevice;
+
+    private volatile Wishbone wb;
+    private volatile Everloop everloop;
+    private volatile EverloopRenderer everloopRenderer;
+    private volatile SensorSampler sensorSampler;
+    private final SensorSnapshot snapshot = new SensorSnapshot();
+    private final TelemetryFormatter telemetry =
+            new TelemetryFormatter(false, TELEMETRY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    private final ImuRingBuffer imuHistory = new ImuRingBuffer(IMU_HISTORY_SAMPLES);
+    private SensorLogger sensorLogger;
+    private volatile MicArrayCapture micCapture;
+    private final DoaEngine doaEngine = new DoaEngine();
     private boolean toggleColor;
 
     private MatrixInitializer matrixInit;
+    private StartupPipeline startup;
+    // guards destroyed and the start/stop of the startup components
+    private final Object lifecycleLock = new Object();
+    private volatile boolean destroyed;
+    private boolean firstSampleReported;
 
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         Log.i(TAG, "Starting Matrix-Creator device config..");
-        PeripheralManagerService service = new PeripheralManagerService();
-        configSPI(service);
+        updateTelemetrySwitch();
+        final PeripheralManagerService service = new PeripheralManagerService();
+
+        // every stage runs off the main thread, as soon as what it needs is ready
+        startup = new StartupPipeline();
+        final CompletableFuture<SpiDevice> spi = startup.stage("spi", new Callable<SpiDevice>() {
+            @Override
+            public SpiDevice call() throws IOException {
+                return configSPI(service);
+            }
+        });
 
         // TODO: fix flashing time, and some NDK data convertions (in progress)
         // TODO: branch: https://github.com/matrix-io/matrix-creator-android-things/tree/av/xc3sprog
-        //startFPGAFlashing(service);
+        CompletableFuture<?> fpga = FLASH_FPGA ? startFPGAFlashing(service, spi) : spi;
 
-        initDevices(spiDevice);
+        final CompletableFuture<Wishbone> bus = startup.stage("wishbone", new Callable<Wishbone>() {
+            @Override
+            public Wishbone call() {
+                wb = new Wishbone(spi.join());
+                return wb;
+            }
+        }, spi, fpga);
+        CompletableFuture<SensorSampler> sensors = startup.stage("sensors", new Callable<SensorSampler>() {
+            @Override
+            public SensorSampler call() {
+                return initSensors(bus.join());
+            }
+        }, bus);
+        CompletableFuture<EverloopRenderer> leds = startup.stage("everloop", new Callable<EverloopRenderer>() {
+            @Override
+            public EverloopRenderer call() {
+                return initEverloop(bus.join());
+            }
+        }, bus);
+        if (SHOW_SOUND_DIRECTION) {
+            startup.stage("mic array", new Callable<MicArrayCapture>() {
+                @Override
+                public MicArrayCapture call() {
+                    return initMicArray(bus.join());
+                }
+            }, bus);
+        }
+        startup.finish();
 
         // Runnable that continuously update sensors and LED (Matrix LED on GPIO21)
-        mHandler.post(mPollingRunnable);
+        CompletableFuture.allOf(sensors, leds).thenRun(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (lifecycleLock) {
+                    if (!destroyed) mHandler.post(mPollingRunnable);
+                }
+            }
+        });
     }
 
-    private void startFPGAFlashing(PeripheralManagerService service) {
-        matrixInit = new MatrixInitializer(this, service, spiDevice);
-        matrixInit.init();
+    private CompletableFuture<Boolean> startFPGAFlashing(PeripheralManagerService service,
+                                                         final CompletableFuture<SpiDevice> spi) {
+        matrixInit = new MatrixInitializer(this, service, null);
+        final CompletableFuture<Long> assets = startup.stage("assets", new Callable<Long>() {
+            @Override
+            public Long call() {
+                return matrixInit.copyAssetsToDataFolder();
+            }
+        });
+        CompletableFuture<Void> pins = startup.stage("pins", new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                matrixInit.configurePins();
+                return null;
+            }
+        });
+        return startup.stage("fpga", new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws IOException {
+                if (!matrixInit.ensureFirmware(spi.join(), assets.join(), startup.getTimer())) {
+                    throw new IOException("FPGA programming failed");
+                }
+                return true;
+            }
+        }, spi, assets, pins);
         //while (jni.burnFirmware() != 1) ;
     }
 
-    private void initDevices(SpiDevice spiDevice) {
-        wb = new Wishbone(spiDevice);
-        uvSensor = new UV(wb);
-        pressure = new Pressure(wb);
-        humidity = new Humidity(wb);
-        imuSensor = new IMU(wb);
+    private SensorSampler initSensors(Wishbone wb) {
+        // IMU runs at 100 Hz, UV, Pressure and Humidity at 1 Hz (see each sensor period)
+        SensorScheduler scheduler = new SensorScheduler(wb,
+                new UV(wb), new Pressure(wb), new Humidity(wb), new IMU(wb));
+        SensorSampler sampler = new SensorSampler(scheduler);
+        sampler.setImuHistory(imuHistory);
+        synchronized (lifecycleLock) {
+            sensorSampler = sampler;
+            if (!destroyed) {
+                if (LOG_SENSORS) startSensorLog(sampler);
+                sampler.start();
+            }
+        }
+        return sampler;
+    }
+
+    private EverloopRenderer initEverloop(Wishbone wb) {
         everloop = new Everloop(wb);
-        everloop.clear();
-        everloop.write(everloop.ledImage);
+        EverloopRenderer renderer = new EverloopRenderer(everloop, EVERLOOP_FRAME_RATE);
+        renderer.getBackBuffer().clear();
+        everloop.write(renderer.getBackBuffer());
+        synchronized (lifecycleLock) {
+            everloopRenderer = renderer;
+            if (!destroyed) renderer.start();
+        }
+        return renderer;
+    }
+
+    private MicArrayCapture initMicArray(Wishbone wb) {
+        MicArrayCapture capture = new MicArrayCapture(new MicArray(wb), 4);
+        synchronized (lifecycleLock) {
+            micCapture = capture;
+            if (!destroyed) capture.start();
+        }
+        return capture;
     }
 
-    private void configSPI(PeripheralManagerService service) {
+    private void startSensorLog(SensorSampler sampler) {
+        sensorLogger = new SensorLogger(new File(getFilesDir(), "sensorlog"),
+                SENSOR_LOG_SEGMENT_RECORDS, SENSOR_LOG_SEGMENTS);
+        try {
+            sensorLogger.open();
+            sampler.setLogger(sensorLogger);
+        } catch (IOException e) {
+            Log.e(TAG, "Error opening sensor log", e);
+            sensorLogger = null;
+        }
+    }
+
+    private SpiDevice configSPI(PeripheralManagerService service) throws IOException {
         try {
             List<String> deviceList = service.getSpiBusList();
             if (deviceList.isEmpty()) {
@@ -118,21 +259,39 @@ public class MainActivity extends Activity{
             spiDevice.setFrequency(18000000);     // 18MHz
             spiDevice.setBitsPerWord(8);          // 8 BPW
             spiDevice.setBitJustification(false); // MSB first
+            return spiDevice;
 
         } catch (IOException e) {
             Log.e(TAG, "Error on PeripheralIO API (SPI)", e);
-            e.printStackTrace();
+            throw e;
         }
     }
 
-    void setColor(ArrayList<LedValue> leds, int pos, int r, int g, int b, int w) {
-        leds.get(pos % 35).red = (byte) r;
-        leds.get(pos % 35).green = (byte) g;
-        leds.get(pos % 35).blue = (byte) b;
-        leds.get(pos % 35).white = (byte) w;
+    private void reportFirstSample() {
+        long sampled = sensorSampler.getFirstSampleNanos();
+        if (sampled == 0) return;
+        firstSampleReported = true;
+        BootTimer timer = startup.getTimer();
+        timer.record("first sample", timer.getStartNanos(), sampled);
+        Log.i(TAG, "Time to first sample: "
+                + TimeUnit.NANOSECONDS.toMillis(sampled - timer.getStartNanos()) + " ms");
+    }
+
+    /**
+     * Sensor telemetry follows the log level property of {@link #TAG}, checked at startup
+     * and every {@link #METRICS_LOG_TICKS}: "adb shell setprop log.tag.MainActivity DEBUG"
+     * turns it on and "... INFO", the default level, off again.
+     */
+    private void updateTelemetrySwitch() {
+        boolean loggable = Log.isLoggable(TAG, Log.DEBUG);
+        if (loggable != telemetry.isEnabled()) telemetry.setEnabled(loggable);
+    }
+
+    void setColor(LedFrame leds, int pos, int r, int g, int b, int w) {
+        leds.set(pos % leds.size(), r, g, b, w);
     }
 
-    void drawProgress(ArrayList<LedValue> leds, int counter) {
+    void drawProgress(LedFrame leds, int counter) {
         if (counter % 35 == 0) toggleColor = !toggleColor;
         int min = counter % 35;
         int solid = 35;
@@ -143,6 +302,19 @@ public class MainActivity extends Activity{
         }
     }
 
+    void drawSoundDirection(LedFrame leds) {
+        if (micCapture == null) return;
+        PcmBlock block;
+        boolean found = false;
+        while ((block = micCapture.poll()) != null) {
+            found |= doaEngine.process(block);
+            micCapture.release(block);
+        }
+        if (!found) return;
+        leds.clear();
+        setColor(leds, doaEngine.getLed(leds.size()), 0, 0, 30, 0);
+    }
+
     private Runnable mPollingRunnable = new Runnable() {
 
         private long counter = 0;
@@ -150,33 +322,33 @@ public class MainActivity extends Activity{
         @Override
         public void run() {
 
-            // Exit Runnable if devices is already closed
-            if (wb == null) return;
+            // Exit Runnable if devices is already closed, startup may complete after onDestroy
+            if (destroyed || wb == null) return;
             //                mLedGpio.setValue(!mLedGpio.getValue());
-            String output;
-            // Read UVsensor
-            output = "UV: " + uvSensor.read() + "\t";
-            // Read Pressure device values
-            pressure.read();
-            output = output + "AL: " + pressure.getAltitude() + "\t";
-            output = output + "PR: " + pressure.getPressure() + "\t";
-            output = output + "TP: " + pressure.getTemperature() + "\t";
-            // Read Humidity device values
-            humidity.read();
-            output = output + "HM: " + humidity.getHumidity() + "\t";
-            output = output + "TP: " + humidity.getTemperature() + "\t";
-            // Read IMU device values
-            imuSensor.read();
-            output = output + "YW: " + imuSensor.getYaw() + "\t";
-            output = output + "PT: " + imuSensor.getPitch() + "\t";
-            output = output + "RL: " + imuSensor.getRoll() + "\t";
-            if (DEBUG) Log.d(TAG, output);
-
-            if (SHOW_EVERLOOP_PROGRESS) {
-                drawProgress(everloop.ledImage, (int) counter);
-                everloop.write(everloop.ledImage);
-                counter++;
+            if (!firstSampleReported) reportFirstSample();
+            if (telemetry.tryEmit(System.nanoTime())) {
+                // Latest UV, Pressure, Humidity and IMU values published by the sampler
+                sensorSampler.readLatest(snapshot);
+                telemetry.begin().snapshot(snapshot).field("EL saved", everloop.getBytesSaved());
+                Log.d(TAG, telemetry.toString());
             }
+            if (counter % METRICS_LOG_TICKS == 0) {
+                updateTelemetrySwitch();
+                if (telemetry.isEnabled()) {
+                    for (WishboneMetrics.Stats stats : wb.getMetrics().values()) {
+                        Log.d(TAG, stats.toString());
+                    }
+                }
+            }
+
+            if (SHOW_SOUND_DIRECTION) {
+                drawSoundDirection(everloopRenderer.getBackBuffer());
+                everloopRenderer.swapBuffers();
+            } else if (SHOW_EVERLOOP_PROGRESS) {
+                drawProgress(everloopRenderer.getBackBuffer(), (int) counter);
+                everloopRenderer.swapBuffers();
+            }
+            counter++;
             // Reschedule the same runnable in {#INTERVAL_POLLING_MS} milliseconds
             mHandler.postDelayed(mPollingRunnable, INTERVAL_POLLING_MS);
 
@@ -186,20 +358,34 @@ public class MainActivity extends Activity{
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        // Remove pending polling Runnable from the handler.
-        mHandler.removeCallbacks(mPollingRunnable);
         if (DEBUG) Log.i(TAG, "Closing devices and GPIO");
-        try {
-            SHOW_EVERLOOP_PROGRESS = false;
-            everloop.clear();
-            everloop.write(everloop.ledImage);
-//            mLedGpio.close();
-            spiDevice.close();
-        } catch (IOException e) {
-            Log.e(TAG, "Error on PeripheralIO API", e);
-        } finally {
-//            mLedGpio = null;
-            spiDevice = null;
+        // Under the lock so a stage cannot start a component after its field was seen
+        // null here; components assigned later see the flag and are never started.
+        synchronized (lifecycleLock) {
+            destroyed = true;
+            startup.cancel();
+            // Remove pending polling Runnable from the handler, after the flag so startup
+            // cannot post it again.
+            mHandler.removeCallbacks(mPollingRunnable);
+            try {
+                SHOW_EVERLOOP_PROGRESS = false;
+                if (micCapture != null) micCapture.stop();
+                if (sensorSampler != null) sensorSampler.stop();
+                if (sensorLogger != null) sensorLogger.close();
+                if (everloopRenderer != null) {
+                    everloopRenderer.stop();
+                    LedFrame frame = everloopRenderer.getBackBuffer();
+                    frame.clear();
+                    everloop.write(frame);
+                }
+//                mLedGpio.close();
+                if (spiDevice != null) spiDevice.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error on PeripheralIO API", e);
+            } finally {
+//                mLedGpio = null;
+                spiDevice = null;
+            }
         }
     }
 
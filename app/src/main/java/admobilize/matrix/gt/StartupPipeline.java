@@ -0,0 +1,126 @@
+package admobilize.matrix.gt;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import admobilize.matrix.gt.XC3Sprog.BootTimer;
+
+/**
+ * Runs the startup stages off the main thread. A stage starts on the pipeline threads
+ * as soon as the stages it depends on completed, so independent stages (opening the SPI
+ * bus, copying assets, configuring pins...) overlap, and a failed stage fails the stages
+ * depending on it. Every stage records its duration in the {@link BootTimer}.
+ */
+
+public class StartupPipeline {
+
+    private static final String TAG = StartupPipeline.class.getSimpleName();
+    private static final int THREADS = 3;
+
+    private final BootTimer timer = new BootTimer();
+    private final List<CompletableFuture<?>> stages = new ArrayList<>();
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, TAG + "-" + count.incrementAndGet());
+        }
+    });
+
+    /**
+     * Run {@code task} once every future of {@code after} completed.
+     *
+     * @return the result of {@code task}, or the failure of the task or of a dependency
+     */
+    public synchronized <T> CompletableFuture<T> stage(final String name, final Callable<T> task,
+                                                       CompletableFuture<?>... after) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture.allOf(after).whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void ignored, Throwable error) {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                    return;
+                }
+                try {
+                    executor.execute(new StageTask<>(name, task, result));
+                } catch (RejectedExecutionException e) {
+                    // cancelled
+                    result.completeExceptionally(new CancellationException());
+                }
+            }
+        });
+        stages.add(result);
+        return result;
+    }
+
+    /**
+     * Completes when every stage added so far finished, and releases the pipeline
+     * threads. No stages can be added afterwards.
+     */
+    public synchronized CompletableFuture<Void> finish() {
+        CompletableFuture<Void> all = CompletableFuture.allOf(
+                stages.toArray(new CompletableFuture<?>[stages.size()]));
+        all.whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void ignored, Throwable error) {
+                executor.shutdown();
+                Log.i(TAG, "Startup " + (error == null ? "done" : "failed") + ": " + timer);
+            }
+        });
+        return all;
+    }
+
+    /**
+     * Drop the stages not started yet, e.g. when the activity goes away during startup.
+     * Dropped stages, and so the stages depending on them and {@link #finish()}, fail
+     * with a {@link CancellationException}.
+     */
+    public void cancel() {
+        for (Runnable dropped : executor.shutdownNow()) {
+            ((StageTask<?>) dropped).result.completeExceptionally(new CancellationException());
+        }
+    }
+
+    public BootTimer getTimer() {
+        return timer;
+    }
+
+    /** A stage queued on the pipeline threads, keeping its future so cancel() can fail it. */
+    private class StageTask<T> implements Runnable {
+        private final String name;
+        private final Callable<T> task;
+        private final CompletableFuture<T> result;
+
+        StageTask(String name, Callable<T> task, CompletableFuture<T> result) {
+            this.name = name;
+            this.task = task;
+            this.result = result;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            try {
+                T value = task.call();
+                timer.record(name, start);
+                result.complete(value);
+            } catch (Exception e) {
+                Log.e(TAG, "Startup stage " + name + " failed", e);
+                result.completeExceptionally(e);
+            }
+        }
+    }
+}
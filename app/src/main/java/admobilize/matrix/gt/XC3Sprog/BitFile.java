@@ -0,0 +1,157 @@
+package admobilize.matrix.gt.XC3Sprog;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Header of a Xilinx .bit file. Opening reads only the header and leaves the source at
+ * the configuration data, so the data can be streamed to the programmer without loading
+ * the file. A mapped file (see {@link #open(ByteBuffer)}) is read straight from the page
+ * cache.
+ */
+
+public class BitFile {
+
+    private static final int MAX_FIELD_LENGTH = 1024;
+
+    private final ReadableByteChannel channel;
+    private final DataInputStream in;
+    private String design = "";
+    private String part = "";
+    private String date = "";
+    private String time = "";
+    private int length;
+
+    private BitFile(ReadableByteChannel channel) {
+        this.channel = channel;
+        // unbuffered, so the channel is left right after the header
+        this.in = new DataInputStream(Channels.newInputStream(channel));
+    }
+
+    public static BitFile open(ReadableByteChannel channel) throws IOException {
+        BitFile bit = new BitFile(channel);
+        bit.readHeader();
+        return bit;
+    }
+
+    public static BitFile open(InputStream in) throws IOException {
+        return open(Channels.newChannel(in));
+    }
+
+    /**
+     * Read the file from {@code buffer}, e.g. a memory-mapped asset, without copying it.
+     */
+    public static BitFile open(ByteBuffer buffer) throws IOException {
+        return open(new BufferChannel(buffer.slice()));
+    }
+
+    private void readHeader() throws IOException {
+        // fixed preamble: 9 bytes of magic, then a field of length 1
+        int preamble = in.readUnsignedShort();
+        if (preamble != 9) throw new IOException("Not a .bit file");
+        in.readFully(new byte[preamble]);
+        if (in.readUnsignedShort() != 1) throw new IOException("Not a .bit file");
+
+        while (true) {
+            int key = in.readUnsignedByte();
+            if (key == 'e') {
+                length = in.readInt();
+                if (length <= 0) throw new IOException("Invalid .bit data length: " + length);
+                return;
+            }
+            int fieldLength = in.readUnsignedShort();
+            if (fieldLength > MAX_FIELD_LENGTH) throw new IOException("Invalid .bit header");
+            byte[] field = new byte[fieldLength];
+            in.readFully(field);
+            // fields are NUL terminated
+            String value = new String(field, 0, fieldLength > 0 && field[fieldLength - 1] == 0
+                    ? fieldLength - 1 : fieldLength, "US-ASCII");
+            switch (key) {
+                case 'a':
+                    design = value;
+                    break;
+                case 'b':
+                    part = value;
+                    break;
+                case 'c':
+                    date = value;
+                    break;
+                case 'd':
+                    time = value;
+                    break;
+                default:
+                    throw new IOException("Unknown .bit header field: " + (char) key);
+            }
+        }
+    }
+
+    /**
+     * Channel positioned at the configuration data, {@link #getLength()} bytes long.
+     */
+    public ReadableByteChannel getData() {
+        return channel;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public String getDesign() {
+        return design;
+    }
+
+    public String getPart() {
+        return part;
+    }
+
+    public String getDate() {
+        return date;
+    }
+
+    public String getTime() {
+        return time;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return design + " " + part + " " + date + " " + time + " (" + length + " bytes)";
+    }
+
+    private static class BufferChannel implements ReadableByteChannel {
+        private final ByteBuffer buffer;
+        private boolean open = true;
+
+        BufferChannel(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (!buffer.hasRemaining()) return -1;
+            int count = Math.min(dst.remaining(), buffer.remaining());
+            int limit = buffer.limit();
+            buffer.limit(buffer.position() + count);
+            dst.put(buffer);
+            buffer.limit(limit);
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+}
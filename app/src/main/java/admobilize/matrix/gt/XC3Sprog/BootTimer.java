@@ -0,0 +1,68 @@
+package admobilize.matrix.gt.XC3Sprog;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durations of the boot phases, in the order they were recorded.
+ */
+
+public class BootTimer {
+
+    private final long start;
+    private long last;
+    private final LinkedHashMap<String, Long> phases = new LinkedHashMap<>();
+
+    public BootTimer() {
+        this.start = System.nanoTime();
+        this.last = start;
+    }
+
+    /**
+     * Record the phase {@code phase} as running from {@code startNanos} until now.
+     * Phases may overlap when they run in parallel.
+     */
+    public void record(String phase, long startNanos) {
+        record(phase, startNanos, System.nanoTime());
+    }
+
+    public synchronized void record(String phase, long startNanos, long endNanos) {
+        phases.put(phase, endNanos - startNanos);
+        if (endNanos > last) last = endNanos;
+    }
+
+    public long getStartNanos() {
+        return start;
+    }
+
+    /**
+     * @return nanoseconds spent in {@code phase}, -1 if it did not run
+     */
+    public synchronized long getPhaseNanos(String phase) {
+        Long nanos = phases.get(phase);
+        return nanos == null ? -1 : nanos;
+    }
+
+    public synchronized Map<String, Long> getPhases() {
+        return new LinkedHashMap<>(phases);
+    }
+
+    /**
+     * @return nanoseconds from creation to the latest phase end
+     */
+    public synchronized long getTotalNanos() {
+        return last - start;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            sb.append(phase.getKey()).append('=')
+                    .append(TimeUnit.NANOSECONDS.toMillis(phase.getValue())).append("ms ");
+        }
+        return sb.append("total=").append(TimeUnit.NANOSECONDS.toMillis(last - start)).append("ms")
+                .toString();
+    }
+}
@@ -0,0 +1,117 @@
+package admobilize.matrix.gt.XC3Sprog;
+
+import com.google.android.things.pio.Gpio;
+import com.google.android.things.pio.PeripheralManagerService;
+
+import java.io.IOException;
+
+import admobilize.matrix.gt.BoardDefaults;
+
+/**
+ * Bit-banged {@link JtagCable} on the TDI/TMS/TCK/TDO pins of {@link BoardDefaults}.
+ *
+ * Every pin write is a call into the peripheral service, so the cable remembers the
+ * levels of TMS and TDI and only writes them when they change, and samples TDO only
+ * when the caller wants the bits. Streaming configuration data then costs the two TCK
+ * edges plus the TDI changes per bit.
+ */
+
+public class GpioJtagCable implements JtagCable {
+
+    private final Gpio tdi;
+    private final Gpio tms;
+    private final Gpio tck;
+    private final Gpio tdo;
+
+    private boolean tdiLevel;
+    private boolean tmsLevel;
+
+    public GpioJtagCable(PeripheralManagerService service) throws IOException {
+        Gpio[] pins = new Gpio[4];
+        try {
+            pins[0] = service.openGpio(BoardDefaults.getGPIO_TDI());
+            pins[1] = service.openGpio(BoardDefaults.getGPIO_TMS());
+            pins[2] = service.openGpio(BoardDefaults.getGPIO_TCK());
+            pins[3] = service.openGpio(BoardDefaults.getGPIO_TDO());
+
+            pins[0].setDirection(Gpio.DIRECTION_OUT_INITIALLY_LOW);
+            pins[1].setDirection(Gpio.DIRECTION_OUT_INITIALLY_LOW);
+            pins[2].setDirection(Gpio.DIRECTION_OUT_INITIALLY_LOW);
+            pins[3].setDirection(Gpio.DIRECTION_IN);
+        } catch (IOException | RuntimeException e) {
+            // release the pins opened so far, the caller gets no cable to close
+            for (Gpio pin : pins) {
+                if (pin == null) continue;
+                try {
+                    pin.close();
+                } catch (IOException closeError) {
+                    e.addSuppressed(closeError);
+                }
+            }
+            throw e;
+        }
+        tdi = pins[0];
+        tms = pins[1];
+        tck = pins[2];
+        tdo = pins[3];
+    }
+
+    @Override
+    public void clockTms(int pattern, int bits) throws IOException {
+        for (int i = 0; i < bits; i++) {
+            clockBit(((pattern >>> i) & 1) != 0, false);
+        }
+    }
+
+    @Override
+    public void clock(int cycles) throws IOException {
+        for (int i = 0; i < cycles; i++) {
+            clockBit(false, false);
+        }
+    }
+
+    @Override
+    public void shift(byte[] in, int offset, byte[] out, int bits, boolean exit) throws IOException {
+        if (out != null) {
+            for (int i = 0; i < (bits + 7) >> 3; i++) out[offset + i] = 0;
+        }
+        for (int i = 0; i < bits; i++) {
+            int index = offset + (i >> 3);
+            int mask = 1 << (i & 7);
+            // TDO changed on the previous falling edge, sample it before the rising one
+            if (out != null && tdo.getValue()) out[index] |= mask;
+            boolean bit = in == null || (in[index] & mask) != 0;
+            clockBit(exit && i == bits - 1, bit);
+        }
+    }
+
+    private void clockBit(boolean tmsBit, boolean tdiBit) throws IOException {
+        if (tmsBit != tmsLevel) {
+            tms.setValue(tmsBit);
+            tmsLevel = tmsBit;
+        }
+        if (tdiBit != tdiLevel) {
+            tdi.setValue(tdiBit);
+            tdiLevel = tdiBit;
+        }
+        tck.setValue(true);
+        tck.setValue(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            tdi.close();
+        } finally {
+            try {
+                tms.close();
+            } finally {
+                try {
+                    tck.close();
+                } finally {
+                    tdo.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package admobilize.matrix.gt.XC3Sprog;
+
+import java.io.IOException;
+
+/**
+ * Drives TCK, TMS and TDI and samples TDO of a JTAG chain. Bits are handed over in
+ * whole vectors, LSB of byte 0 first, so a backend can clock them out in a tight loop
+ * and skip pin writes that do not change the level.
+ */
+
+public interface JtagCable {
+
+    /**
+     * Clock {@code bits} cycles (at most 32) with the TMS levels of {@code tms}, LSB
+     * first, and TDI low.
+     */
+    void clockTms(int tms, int bits) throws IOException;
+
+    /**
+     * Clock {@code cycles} cycles with TMS and TDI low, e.g. to wait in Run-Test/Idle.
+     */
+    void clock(int cycles) throws IOException;
+
+    /**
+     * Shift {@code bits} bits from {@code tdi}, starting at byte {@code offset}, with TMS
+     * low. TMS goes high on the last bit if {@code exit}, leaving the Shift state.
+     *
+     * @param tdi bits to shift in, null to hold TDI high
+     * @param tdo receives the bits shifted out (same layout as tdi), null to skip sampling
+     */
+    void shift(byte[] tdi, int offset, byte[] tdo, int bits, boolean exit) throws IOException;
+
+    void close() throws IOException;
+}
@@ -0,0 +1,261 @@
+package admobilize.matrix.gt.XC3Sprog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Configures the Spartan-6 of the Creator through a {@link JtagCable}, in process,
+ * instead of running xc3sprog.
+ *
+ * The chain is scanned for IDCODEs first; devices are numbered from TDO like xc3sprog
+ * does, and the others are kept in BYPASS. Programming follows the Spartan-6 JTAG flow
+ * (UG380): JPROGRAM, wait for INIT_COMPLETE, CFG_IN with the configuration data,
+ * JSTART and start-up clocks, then DONE is checked in the IR capture. The data is read
+ * and shifted in {@link #CHUNK_SIZE} chunks, each one a single cable call.
+ */
+
+public class JtagProgrammer {
+
+    public static final int CHUNK_SIZE = 4096;
+
+    static final int MAX_DEVICES = 8;
+
+    // Spartan-6 instructions and IR capture bits
+    static final int SPARTAN6_IR_LENGTH = 6;
+    static final int SPARTAN6_IDCODE_MASK = 0x0FE00FFF;
+    static final int SPARTAN6_IDCODE = 0x04000093;
+    static final int CFG_IN = 0x05;
+    static final int IDCODE = 0x09;
+    static final int JPROGRAM = 0x0B;
+    static final int JSTART = 0x0C;
+    static final int BYPASS = 0x3F;
+    static final int IR_INIT_COMPLETE = 0x10;
+    static final int IR_DONE = 0x20;
+
+    // ARM debug port, the other device found on the Creator chain
+    static final int ARM_MANUFACTURER = 0x23B;
+    static final int ARM_IR_LENGTH = 4;
+
+    private static final int INIT_POLLS = 100;
+    private static final int INIT_POLL_CLOCKS = 100;
+    private static final int STARTUP_CLOCKS = 32;
+
+    private static final byte[] REVERSE = new byte[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            REVERSE[i] = (byte) (Integer.reverse(i) >>> 24);
+        }
+    }
+
+    private final JtagCable cable;
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private final ByteBuffer chunkBuffer = ByteBuffer.wrap(chunk);
+    private final byte[] scan = new byte[(MAX_DEVICES + 1) * 4];
+
+    private int[] idcodes;
+    private int[] irLengths;
+    private int target = -1;
+
+    private long programmedBits;
+    private long programmingNanos;
+
+    public JtagProgrammer(JtagCable cable) {
+        this.cable = cable;
+    }
+
+    /**
+     * Read the IDCODEs of the chain and find the FPGA.
+     *
+     * @return IDCODEs from TDO on, 0 for devices without IDCODE
+     */
+    public int[] detectChain() throws IOException {
+        reset();
+        // after reset every device selects IDCODE, or BYPASS which shifts out a 0
+        cable.clockTms(0x1, 3);  // Run-Test/Idle -> Shift-DR
+        cable.shift(null, 0, scan, scan.length * 8, true);
+        cable.clockTms(0x1, 2);  // Exit1-DR -> Run-Test/Idle
+
+        int[] found = new int[MAX_DEVICES];
+        int devices = 0;
+        int bit = 0;
+        while (bit + 32 <= scan.length * 8) {
+            if (readBit(scan, bit) == 0) {
+                if (devices == MAX_DEVICES) throw new IOException("JTAG chain too long");
+                found[devices++] = 0;
+                bit++;
+                continue;
+            }
+            int id = readInt(scan, bit);
+            if (id == -1) break;  // our own ones shifted through the chain
+            if (devices == MAX_DEVICES) throw new IOException("JTAG chain too long");
+            found[devices++] = id;
+            bit += 32;
+        }
+        if (devices == 0) throw new IOException("No JTAG devices found");
+
+        idcodes = new int[devices];
+        System.arraycopy(found, 0, idcodes, 0, devices);
+        irLengths = new int[devices];
+        target = -1;
+        int unknown = -1;
+        int known = 0;
+        for (int i = 0; i < devices; i++) {
+            irLengths[i] = irLength(idcodes[i]);
+            if (irLengths[i] == 0) {
+                if (unknown != -1) throw new IOException("Unknown JTAG devices in the chain");
+                unknown = i;
+            }
+            known += irLengths[i];
+            if (target == -1 && (idcodes[i] & SPARTAN6_IDCODE_MASK) == SPARTAN6_IDCODE) target = i;
+        }
+        if (unknown != -1) irLengths[unknown] = measureIrLength() - known;
+        if (target == -1) throw new IOException("No Spartan-6 in the JTAG chain");
+        return idcodes.clone();
+    }
+
+    static int irLength(int idcode) {
+        if ((idcode & SPARTAN6_IDCODE_MASK) == SPARTAN6_IDCODE) return SPARTAN6_IR_LENGTH;
+        if (((idcode >>> 1) & 0x7FF) == ARM_MANUFACTURER) return ARM_IR_LENGTH;
+        return 0;
+    }
+
+    /**
+     * Total IR length of the chain: fill every IR with ones, then time a zero through.
+     */
+    private int measureIrLength() throws IOException {
+        int flush = MAX_DEVICES * 32;
+        int bits = flush * 2;
+        byte[] in = new byte[bits / 8];
+        byte[] out = new byte[bits / 8];
+        for (int i = 0; i < in.length; i++) in[i] = (byte) 0xFF;
+        in[flush / 8] = (byte) 0xFE;  // the zero at bit "flush"
+
+        cable.clockTms(0x3, 4);  // Run-Test/Idle -> Shift-IR
+        cable.shift(in, 0, out, bits, true);
+        cable.clockTms(0x1, 2);
+        for (int i = flush; i < bits; i++) {
+            if (readBit(out, i) == 0) {
+                reset();
+                return i - flush;
+            }
+        }
+        throw new IOException("Cannot measure the JTAG IR length");
+    }
+
+    /**
+     * Configure the FPGA with the data of {@code bit}, streamed in chunks.
+     */
+    public void program(BitFile bit) throws IOException {
+        if (target == -1) detectChain();
+
+        reset();
+        shiftIr(JPROGRAM);
+        int status = shiftIr(CFG_IN);
+        for (int poll = 0; (status & IR_INIT_COMPLETE) == 0; poll++) {
+            if (poll == INIT_POLLS) throw new IOException("FPGA did not clear its configuration");
+            cable.clock(INIT_POLL_CLOCKS);
+            status = shiftIr(CFG_IN);
+        }
+
+        long start = System.nanoTime();
+        shiftDr(bit.getData(), bit.getLength());
+        programmingNanos = System.nanoTime() - start;
+        programmedBits = (long) bit.getLength() * 8;
+
+        shiftIr(JSTART);
+        cable.clock(STARTUP_CLOCKS);
+        status = shiftIr(BYPASS);
+        reset();
+        if ((status & IR_DONE) == 0) {
+            throw new IOException("FPGA DONE not set after programming, IR capture 0x"
+                    + Integer.toHexString(status));
+        }
+    }
+
+    /**
+     * Shift {@code instruction} into the FPGA and BYPASS into the other devices.
+     *
+     * @return the IR capture of the FPGA
+     */
+    int shiftIr(int instruction) throws IOException {
+        int bits = 0;
+        for (int length : irLengths) bits += length;
+        byte[] in = new byte[(bits + 7) / 8];
+        byte[] out = new byte[in.length];
+        for (int i = 0; i < in.length; i++) in[i] = (byte) 0xFF;
+        int offset = 0;
+        for (int d = 0; d < target; d++) offset += irLengths[d];
+        for (int i = 0; i < irLengths[target]; i++) {
+            if (((instruction >> i) & 1) == 0) in[(offset + i) >> 3] &= ~(1 << ((offset + i) & 7));
+        }
+        cable.clockTms(0x3, 4);  // Run-Test/Idle -> Shift-IR
+        cable.shift(in, 0, out, bits, true);
+        cable.clockTms(0x1, 2);  // Exit1-IR -> Update-IR -> Run-Test/Idle
+        int capture = 0;
+        for (int i = 0; i < irLengths[target]; i++) capture |= readBit(out, offset + i) << i;
+        return capture;
+    }
+
+    /**
+     * Stream {@code length} bytes of configuration data into the FPGA, MSB of each byte
+     * first as the configuration logic expects.
+     */
+    private void shiftDr(ReadableByteChannel data, int length) throws IOException {
+        // devices between TDI and the FPGA delay the data by one bypass bit each
+        int trailing = idcodes.length - 1 - target;
+
+        cable.clockTms(0x1, 3);  // Run-Test/Idle -> Shift-DR
+        int remaining = length;
+        while (remaining > 0) {
+            int count = Math.min(remaining, CHUNK_SIZE);
+            chunkBuffer.clear();
+            chunkBuffer.limit(count);
+            while (chunkBuffer.hasRemaining()) {
+                if (data.read(chunkBuffer) == -1) throw new IOException("Bitstream truncated");
+            }
+            for (int i = 0; i < count; i++) chunk[i] = REVERSE[chunk[i] & 0xFF];
+            remaining -= count;
+            cable.shift(chunk, 0, null, count * 8, remaining == 0 && trailing == 0);
+        }
+        if (trailing > 0) cable.shift(null, 0, null, trailing, true);
+        cable.clockTms(0x1, 2);  // Exit1-DR -> Update-DR -> Run-Test/Idle
+    }
+
+    /**
+     * Test-Logic-Reset, then Run-Test/Idle.
+     */
+    private void reset() throws IOException {
+        cable.clockTms(0x1F, 6);
+    }
+
+    private static int readBit(byte[] data, int bit) {
+        return (data[bit >> 3] >> (bit & 7)) & 1;
+    }
+
+    private static int readInt(byte[] data, int bit) {
+        int value = 0;
+        for (int i = 0; i < 32; i++) value |= readBit(data, bit + i) << i;
+        return value;
+    }
+
+    public int getTarget() {
+        return target;
+    }
+
+    public long getProgrammedBits() {
+        return programmedBits;
+    }
+
+    public long getProgrammingNanos() {
+        return programmingNanos;
+    }
+
+    /**
+     * Configuration data throughput of the last {@link #program(BitFile)}.
+     */
+    public double getBitsPerSecond() {
+        return programmingNanos == 0 ? 0 : programmedBits * 1e9 / programmingNanos;
+    }
+}
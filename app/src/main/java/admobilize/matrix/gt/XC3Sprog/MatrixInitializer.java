@@ -1,6 +1,10 @@
 package admobilize.matrix.gt.XC3Sprog;
 
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 import android.os.Build;
 import android.util.Log;
@@ -9,19 +13,26 @@ import com.google.android.things.pio.Gpio;
 import com.google.android.things.pio.PeripheralManagerService;
 import com.google.android.things.pio.SpiDevice;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Collections;
 import java.util.List;
+import java.util.zip.CRC32;
 
 import admobilize.matrix.gt.BoardDefaults;
 import admobilize.matrix.gt.Config;
 import admobilize.matrix.gt.R;
+import admobilize.matrix.gt.matrix.FpgaInfo;
+import admobilize.matrix.gt.matrix.Wishbone;
 
 
 /**
@@ -33,10 +44,27 @@ public class MatrixInitializer {
     private static final String TAG = MatrixInitializer.class.getSimpleName();
     private static final boolean DEBUG = Config.DEBUG;
 
-    private static final String XC3SPROG_ASSETS_PATH = "matrix-xc3sprog";
-    private static final String MATRIX_FIRWARE_ASSETS_PATH = "matrix_system.bit";
+    static final String XC3SPROG_ASSETS_PATH = "matrix-xc3sprog";
+    static final String MATRIX_FIRWARE_ASSETS_PATH = "matrix_system.bit";
+
+    // program through JtagProgrammer instead of running xc3sprog
+    private static final boolean IN_PROCESS_JTAG = true;
+    // JtagProgrammer reads the bitstream mapped from the APK instead of a copy
+    private static final boolean STREAM_BITSTREAM = true;
+
+    private static final String PREFS_NAME = "matrix_initializer";
+    // CRC32 of the copy in the app directory
+    private static final String PREF_ASSET_CRC = "asset_crc_";
+    // CRC32 of the bundled asset, valid for the APK identified by the stamp
+    private static final String PREF_ASSET_FINGERPRINT = "asset_fingerprint_";
+    private static final String PREF_ASSET_STAMP = "asset_stamp_";
+    private static final String PREF_FPGA_BITSTREAM = "fpga_bitstream_crc";
+    private static final String PREF_FPGA_NAME = "fpga_name";
+    private static final String PREF_FPGA_VERSION = "fpga_version";
 
     private final Context ctx;
+    private final SharedPreferences prefs;
+    private BootTimer bootTimer;
     private PeripheralManagerService service;
     private SpiDevice spiDevice;
 
@@ -52,12 +80,14 @@ public class MatrixInitializer {
 
     public MatrixInitializer(Context ctx, PeripheralManagerService service, SpiDevice spiDevice) {
         this.ctx = ctx;
+        this.prefs = ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
         this.service = service;
         this.spiDevice = spiDevice;
     }
 
     public MatrixInitializer(Context ctx) throws IOException {
         this.ctx = ctx;
+        this.prefs = ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
         this.service = new PeripheralManagerService();
 
         List<String> spiBusList = service.getSpiBusList();
@@ -68,41 +98,83 @@ public class MatrixInitializer {
         }
     }
 
-    private void copyAssets(String filename) {
+    /**
+     * Copy {@code filename} out of the assets unless the copy in the app directory already
+     * matches the bundled file.
+     *
+     * @return CRC32 fingerprint of the bundled asset, -1 if it could not be read
+     */
+    private long syncAsset(String filename) {
         String appFileDirectory = this.ctx.getFilesDir().getPath();
-        AssetManager assetManager = this.ctx.getAssets();
-
-        InputStream in = null;
-        OutputStream out = null;
-        Log.d(TAG, "Attempting to copy this file: " + filename);
+        File outFile = new File(appFileDirectory, filename);
 
         try {
-
-            File outFile = new File(appFileDirectory, filename);
-            /*
-            if (outFile.exists()) {
-                Log.d(TAG, "File already exists in app directory: " + filename);
-                return;
+            long fingerprint = assetFingerprint(filename);
+            if (outFile.exists() && prefs.getLong(PREF_ASSET_CRC + filename, -1) == fingerprint) {
+                Log.d(TAG, "File already up to date in app directory: " + filename);
+                return fingerprint;
             }
-            */
 
-            out = new FileOutputStream(outFile);
+            Log.d(TAG, "Attempting to copy this file: " + filename + " to " + appFileDirectory);
+            copyFile(this.ctx.getAssets().open(filename), new FileOutputStream(outFile));
+            prefs.edit().putLong(PREF_ASSET_CRC + filename, fingerprint).apply();
+            Log.d(TAG, "Copy success: " + filename);
+            return fingerprint;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to copy asset file: " + filename, e);
+            return -1;
+        }
+    }
 
-            in = assetManager.open(filename);
-            Log.d(TAG, "outDir: " + appFileDirectory);
+    /**
+     * CRC32 of the bundled {@code filename}. Assets only change with the APK, so the
+     * value is computed once per installed package and read from the preferences on
+     * the following boots.
+     */
+    private long assetFingerprint(String filename) throws IOException {
+        String stamp = packageStamp();
+        if (stamp != null && stamp.equals(prefs.getString(PREF_ASSET_STAMP + filename, null))) {
+            long fingerprint = prefs.getLong(PREF_ASSET_FINGERPRINT + filename, -1);
+            if (fingerprint != -1) return fingerprint;
+        }
+        CRC32 crc = new CRC32();
+        fingerprint(this.ctx.getAssets().open(filename), crc);
+        long fingerprint = crc.getValue();
+        if (stamp != null) {
+            prefs.edit()
+                    .putString(PREF_ASSET_STAMP + filename, stamp)
+                    .putLong(PREF_ASSET_FINGERPRINT + filename, fingerprint)
+                    .apply();
+        }
+        return fingerprint;
+    }
 
-            copyFile(in, out);
+    /**
+     * Identifies the installed APK, null if unknown.
+     */
+    private String packageStamp() {
+        try {
+            PackageInfo info = ctx.getPackageManager().getPackageInfo(ctx.getPackageName(), 0);
+            return info.versionCode + ":" + info.lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.w(TAG, "Cannot read the package info", e);
+            return null;
+        }
+    }
 
+    private static long fingerprint(InputStream in, CRC32 crc) throws IOException {
+        byte[] buffer = new byte[8192];
+        long length = 0;
+        int bytesRead;
+        try {
+            while ((bytesRead = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, bytesRead);
+                length += bytesRead;
+            }
+        } finally {
             in.close();
-            in = null;
-            out.flush();
-            out.close();
-            out = null;
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to copy asset file: " + filename, e);
         }
-
-        Log.d(TAG, "Copy success: " + filename);
+        return length;
     }
 
     private void copyFile(InputStream in, OutputStream os) throws IOException {
@@ -115,9 +187,61 @@ public class MatrixInitializer {
         os.close();
     }
 
-    private void copyAssetsToDataFolder() throws IOException {
-        this.copyAssets(XC3SPROG_ASSETS_PATH);
-        this.copyAssets(MATRIX_FIRWARE_ASSETS_PATH);
+    /**
+     * @return fingerprint of the bundled bitstream, -1 if it could not be read
+     */
+    public long copyAssetsToDataFolder() {
+        if (IN_PROCESS_JTAG && STREAM_BITSTREAM) {
+            try {
+                // nothing to copy, the programmer reads the bitstream from the APK
+                mapAsset(this.ctx.getAssets(), MATRIX_FIRWARE_ASSETS_PATH);
+                return assetFingerprint(MATRIX_FIRWARE_ASSETS_PATH);
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot map " + MATRIX_FIRWARE_ASSETS_PATH + ", copying it", e);
+            }
+        }
+        this.syncAsset(XC3SPROG_ASSETS_PATH);
+        return this.syncAsset(MATRIX_FIRWARE_ASSETS_PATH);
+    }
+
+    /**
+     * Map an asset straight from the APK. Only works for assets stored uncompressed, see
+     * aaptOptions.noCompress in the app build.gradle.
+     */
+    static MappedByteBuffer mapAsset(AssetManager assets, String filename) throws IOException {
+        AssetFileDescriptor fd = assets.openFd(filename);
+        FileInputStream in = fd.createInputStream();
+        try {
+            // the mapping stays valid once the descriptor is closed
+            return in.getChannel().map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * The FPGA keeps its design while the board is powered, so after an app restart it
+     * usually already runs the bundled bitstream. That is the case when the design
+     * recorded after the last programming of this bitstream answers on the Wishbone bus.
+     */
+    private boolean isFirmwareLoaded(SpiDevice spiDevice, long fingerprint) {
+        if (fingerprint == -1 || prefs.getLong(PREF_FPGA_BITSTREAM, -1) != fingerprint) return false;
+        FpgaInfo info = new FpgaInfo(new Wishbone(spiDevice));
+        if (!info.read() || !info.isConfigured()) return false;
+        if (DEBUG) Log.d(TAG, "FPGA design: " + info);
+        return prefs.getLong(PREF_FPGA_NAME, -1) == info.getName()
+                && prefs.getLong(PREF_FPGA_VERSION, -1) == info.getVersion();
+    }
+
+    private void saveFirmwareStamp(SpiDevice spiDevice, long fingerprint) {
+        FpgaInfo info = new FpgaInfo(new Wishbone(spiDevice));
+        if (fingerprint == -1 || !info.read() || !info.isConfigured()) return;
+        if (DEBUG) Log.d(TAG, "FPGA design: " + info);
+        prefs.edit()
+                .putLong(PREF_FPGA_BITSTREAM, fingerprint)
+                .putLong(PREF_FPGA_NAME, info.getName())
+                .putLong(PREF_FPGA_VERSION, info.getVersion())
+                .apply();
     }
 
     public void writeLED(boolean state) {
@@ -145,7 +269,7 @@ public class MatrixInitializer {
         }
     }
 
-    private void configurePins() throws IOException {
+    public void configurePins() throws IOException {
 
         mLedGpio = this.service.openGpio(BoardDefaults.getGPIOForLED());
         mXCProgSAM = this.service.openGpio(BoardDefaults.getGPIO_SAM());
@@ -168,34 +292,103 @@ public class MatrixInitializer {
     }
 
     public void init() {
+        bootTimer = new BootTimer();
         try {
-            copyAssetsToDataFolder();
+            long start = System.nanoTime();
+            long fingerprint = copyAssetsToDataFolder();
+            bootTimer.record("assets", start);
 
+            start = System.nanoTime();
             configurePins();
-            this.writeLED(false);
-
-            resetSAM();
-
-            loadFirmware();
+            bootTimer.record("pins", start);
 
-            this.writeLED(true);
-            Thread.sleep(1000l);
-            this.writeLED(false);
-            Thread.sleep(1000l);
-            this.writeLED(true);
-            Thread.sleep(1000l);
-            this.writeLED(false);
+            ensureFirmware(spiDevice, fingerprint, bootTimer);
+            Log.d(TAG, "Boot timings: " + bootTimer);
 
         } catch (IOException e) {
             Log.e(TAG, "Error on PeripheralIO API", e);
             e.printStackTrace();
-        } catch (InterruptedException e) {
-            Log.e(TAG, "Error on Sleeping", e);
-            e.printStackTrace();
         }
     }
 
-    private void loadFirmware() {
+    /**
+     * Program the FPGA unless it already runs the bitstream with {@code fingerprint}.
+     * Needs the assets copied and the pins configured.
+     *
+     * @return true if the FPGA runs the bundled bitstream
+     */
+    public boolean ensureFirmware(SpiDevice spiDevice, long fingerprint, BootTimer timer) {
+        long start = System.nanoTime();
+        boolean loaded = isFirmwareLoaded(spiDevice, fingerprint);
+        timer.record("fpga check", start);
+        if (loaded) {
+            Log.d(TAG, "FPGA already runs the bundled bitstream, skip programming");
+            return true;
+        }
+        // LED on while programming
+        this.writeLED(true);
+        start = System.nanoTime();
+        resetSAM();
+        timer.record("sam reset", start);
+
+        start = System.nanoTime();
+        loaded = IN_PROCESS_JTAG ? programFirmware() : loadFirmware();
+        if (loaded) saveFirmwareStamp(spiDevice, fingerprint);
+        timer.record("program", start);
+        this.writeLED(false);
+        return loaded;
+    }
+
+    /**
+     * Timings of the last {@link #init()}.
+     */
+    public BootTimer getBootTimer() {
+        return bootTimer;
+    }
+
+    /**
+     * Program the FPGA over the JTAG pins from this process, see {@link JtagProgrammer}.
+     */
+    private boolean programFirmware() {
+        File matrixFirmwareFile = new File(this.ctx.getFilesDir(), MATRIX_FIRWARE_ASSETS_PATH);
+        Log.d(TAG, "reconfigurate FPGA and Micro...");
+        JtagCable cable = null;
+        BitFile bit = null;
+        try {
+            cable = new GpioJtagCable(this.service);
+            bit = openBitstream(matrixFirmwareFile);
+            Log.d(TAG, "Bitstream: " + bit);
+            JtagProgrammer programmer = new JtagProgrammer(cable);
+            programmer.program(bit);
+            Log.d(TAG, String.format("done, %d bits in %d ms (%.0f bit/s)",
+                    programmer.getProgrammedBits(),
+                    programmer.getProgrammingNanos() / 1000000, programmer.getBitsPerSecond()));
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Error programming the FPGA", e);
+            return false;
+        } finally {
+            try {
+                if (bit != null) bit.close();
+                if (cable != null) cable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private BitFile openBitstream(File copy) throws IOException {
+        if (STREAM_BITSTREAM) {
+            try {
+                return BitFile.open(mapAsset(this.ctx.getAssets(), MATRIX_FIRWARE_ASSETS_PATH));
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot map " + MATRIX_FIRWARE_ASSETS_PATH + ", using the copy", e);
+            }
+        }
+        return BitFile.open(new BufferedInputStream(new FileInputStream(copy)));
+    }
+
+    boolean loadFirmware() {
         String appFileDirectory = this.ctx.getFilesDir().getPath();
 
         File xc3sprogFile = new File(appFileDirectory, XC3SPROG_ASSETS_PATH);
@@ -217,19 +410,21 @@ public class MatrixInitializer {
             Log.d(TAG, "Error stream: ");
             printStream(errorStream);
 
-            process.waitFor();
+            int exitCode = process.waitFor();
 
             InputStream inputStream = process.getInputStream();
             Log.d(TAG, "Out stream: ");
             printStream(inputStream);
 
-            Log.d(TAG, "done");
+            Log.d(TAG, "done, exit code " + exitCode);
+            return exitCode == 0;
 
         } catch (IOException e) {
             e.printStackTrace();
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
+        return false;
     }
 
     private void printStream(InputStream in) throws IOException {
@@ -0,0 +1,190 @@
+package admobilize.matrix.gt.matrix;
+
+/**
+ * Direction of arrival of the dominant sound source from microphone array frames.
+ *
+ * Each frame is transformed once per channel with a reused {@link Fft}; every pair of
+ * opposite microphones is then cross-correlated with GCC-PHAT to get the time
+ * difference of arrival, and the four delays are combined by least squares into the
+ * azimuth of a plane wave on the board plane. All buffers are preallocated.
+ */
+
+public class DoaEngine {
+
+    static final float SPEED_OF_SOUND = 343.0f;  // m/s
+    private static final float EPSILON = 1e-9f;
+
+    // MATRIX Creator microphone positions in meters, same order as the FPGA channels
+    static final float[] MIC_X = {
+            0.0200908795f, -0.0200908795f, -0.0485036755f, -0.0485036755f,
+            -0.0200908795f, 0.0200908795f, 0.0485036755f, 0.0485036755f};
+    static final float[] MIC_Y = {
+            -0.0485036755f, -0.0485036755f, -0.0200908795f, 0.0200908795f,
+            0.0485036755f, 0.0485036755f, 0.0200908795f, -0.0200908795f};
+    private static final int[][] PAIRS = {{0, 4}, {1, 5}, {2, 6}, {3, 7}};
+
+    private final int channels;
+    private final int sampleRate;
+    private final Fft fft;
+    private final float[][] re;
+    private final float[][] im;
+    private final float[] crossRe;
+    private final float[] crossIm;
+    private final float[] delays = new float[PAIRS.length];
+    private final int maxLag;
+
+    // least squares solution matrix (A^T A)^-1 A^T for u = [ux, uy]
+    private final float[] solveX = new float[PAIRS.length];
+    private final float[] solveY = new float[PAIRS.length];
+
+    private float energyThreshold = 0;
+    private float energy;
+    private float azimuth;
+
+    public DoaEngine(int samplesPerChannel, int sampleRate) {
+        this.channels = MIC_X.length;
+        this.sampleRate = sampleRate;
+        int size = Integer.highestOneBit(samplesPerChannel) << 1;
+        if (size < 2 * samplesPerChannel) size <<= 1;
+        this.fft = new Fft(size);
+        this.re = new float[channels][size];
+        this.im = new float[channels][size];
+        this.crossRe = new float[size];
+        this.crossIm = new float[size];
+
+        double a00 = 0, a01 = 0, a11 = 0;
+        float maxDistance = 0;
+        for (int[] pair : PAIRS) {
+            float dx = MIC_X[pair[0]] - MIC_X[pair[1]];
+            float dy = MIC_Y[pair[0]] - MIC_Y[pair[1]];
+            a00 += dx * dx;
+            a01 += dx * dy;
+            a11 += dy * dy;
+            maxDistance = Math.max(maxDistance, (float) Math.sqrt(dx * dx + dy * dy));
+        }
+        double det = a00 * a11 - a01 * a01;
+        for (int p = 0; p < PAIRS.length; p++) {
+            float dx = MIC_X[PAIRS[p][0]] - MIC_X[PAIRS[p][1]];
+            float dy = MIC_Y[PAIRS[p][0]] - MIC_Y[PAIRS[p][1]];
+            solveX[p] = (float) ((a11 * dx - a01 * dy) / det);
+            solveY[p] = (float) ((a00 * dy - a01 * dx) / det);
+        }
+        this.maxLag = (int) Math.ceil(maxDistance / SPEED_OF_SOUND * sampleRate) + 1;
+    }
+
+    public DoaEngine() {
+        this(MicArray.SAMPLES_PER_FRAME, MicArray.SAMPLE_RATE);
+    }
+
+    /**
+     * Mean square sample value below which frames are ignored.
+     */
+    public void setEnergyThreshold(float energyThreshold) {
+        this.energyThreshold = energyThreshold;
+    }
+
+    /**
+     * Estimate the direction of arrival for {@code block}.
+     *
+     * @return false if the frame is too quiet, the previous azimuth is kept
+     */
+    public boolean process(PcmBlock block) {
+        int samples = block.getSamplesPerChannel();
+        int size = fft.size();
+        short[] pcm = block.getSamples();
+
+        double sum = 0;
+        for (short sample : pcm) {
+            sum += sample * sample;
+        }
+        energy = (float) (sum / pcm.length);
+        if (energy < energyThreshold || energy == 0) return false;
+
+        for (int c = 0; c < channels; c++) {
+            float[] r = re[c];
+            float[] i = im[c];
+            for (int s = 0; s < size; s++) {
+                r[s] = s < samples ? pcm[s * block.getChannels() + c] : 0;
+                i[s] = 0;
+            }
+            fft.forward(r, i);
+        }
+
+        for (int p = 0; p < PAIRS.length; p++) {
+            delays[p] = gccPhat(PAIRS[p][0], PAIRS[p][1]);
+        }
+
+        // (p_i - p_j) . u = -delay * c / fs
+        float ux = 0;
+        float uy = 0;
+        for (int p = 0; p < PAIRS.length; p++) {
+            float b = -delays[p] * SPEED_OF_SOUND / sampleRate;
+            ux += solveX[p] * b;
+            uy += solveY[p] * b;
+        }
+        azimuth = (float) Math.atan2(uy, ux);
+        return true;
+    }
+
+    /**
+     * Delay in samples of channel {@code a} relative to channel {@code b}.
+     */
+    private float gccPhat(int a, int b) {
+        int size = fft.size();
+        float[] ar = re[a];
+        float[] ai = im[a];
+        float[] br = re[b];
+        float[] bi = im[b];
+        for (int k = 0; k < size; k++) {
+            // X_a * conj(X_b), whitened by its magnitude
+            float cr = ar[k] * br[k] + ai[k] * bi[k];
+            float ci = ai[k] * br[k] - ar[k] * bi[k];
+            float magnitude = (float) Math.sqrt(cr * cr + ci * ci) + EPSILON;
+            crossRe[k] = cr / magnitude;
+            crossIm[k] = ci / magnitude;
+        }
+        fft.inverse(crossRe, crossIm);
+
+        int best = 0;
+        float peak = -Float.MAX_VALUE;
+        for (int lag = -maxLag; lag <= maxLag; lag++) {
+            float value = crossRe[(lag + size) % size];
+            if (value > peak) {
+                peak = value;
+                best = lag;
+            }
+        }
+        // parabolic interpolation around the peak for a sub-sample delay
+        float left = crossRe[(best - 1 + size) % size];
+        float right = crossRe[(best + 1 + size) % size];
+        float denominator = left - 2 * peak + right;
+        float shift = denominator == 0 ? 0 : 0.5f * (left - right) / denominator;
+        return best + Math.max(-0.5f, Math.min(0.5f, shift));
+    }
+
+    /**
+     * Azimuth of the last detected source on the board plane, in radians from the x axis.
+     */
+    public float getAzimuth() {
+        return azimuth;
+    }
+
+    public float getEnergy() {
+        return energy;
+    }
+
+    /**
+     * Everloop LED pointing at the last detected source, LED 0 being on the x axis.
+     */
+    public int getLed(int leds) {
+        double turn = (azimuth + 2 * Math.PI) % (2 * Math.PI) / (2 * Math.PI);
+        return (int) Math.round(turn * leds) % leds;
+    }
+
+    /**
+     * Time difference of arrival of the given microphone pair in the last frame, in samples.
+     */
+    public float getDelay(int pair) {
+        return delays[pair];
+    }
+}
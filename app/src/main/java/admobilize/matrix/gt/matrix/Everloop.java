@@ -9,34 +9,127 @@ import java.util.Iterator;
 
 public class Everloop extends SensorBase {
 
+    public static final int LEDS = 35;
+    // green, red, blue, white: two 16 bit words per LED
+    private static final int BYTES_PER_LED = LedFrame.BYTES_PER_LED;
+    private static final int WORDS_PER_LED = BYTES_PER_LED / 2;
+
     public ArrayList<Everloop.LedValue>ledImage=new ArrayList<>();
 
+    // staging frame for the LedValue API
+    private final LedFrame frame = new LedFrame(LEDS);
+    // last frame actually committed to the FPGA
+    private final byte[] shadow = new byte[LEDS * BYTES_PER_LED];
+    private boolean shadowValid;
+    // dirty runs of the frame being committed, dirty LEDs alternate at worst
+    private final int[] runOffset = new int[(LEDS + 1) / 2];
+    private final int[] runLength = new int[(LEDS + 1) / 2];
+    private final Wishbone.Batch batch;
+
+    // written by the thread committing frames, read by the UI
+    private volatile long framesWritten;
+    private volatile long framesSkipped;
+    private volatile long burstsSent;
+    private volatile long bytesSent;
+    private volatile long bytesSaved;
+
     public Everloop(Wishbone wb) {
         super(wb);
+        this.batch = this.wb == null ? null : this.wb.batch();
         init();
     }
 
     public boolean write(ArrayList<LedValue> ledImage) {
         if (wb==null) return false;
-        LedValue led;
-        byte[] wb_data_buffer = new byte[2];
-        int addr_offset = 0;
+        frame.fromLedValues(ledImage);
+        if (!commit(frame.getData(), Math.min(ledImage.size(), LEDS))) return false;
+        this.ledImage=ledImage;
+        return true;
+    }
 
-        Iterator<LedValue> it = ledImage.iterator();
-        while(it.hasNext()){
-            led=it.next();
-            wb_data_buffer[0] = led.green;
-            wb_data_buffer[1] = led.red;
-            wb.SpiWrite((short)(kEverloopBaseAddress + addr_offset), wb_data_buffer, (short) 0);
-            wb_data_buffer[0] = led.blue;
-            wb_data_buffer[1] = led.white;
-            wb.SpiWrite((short)(kEverloopBaseAddress + addr_offset+1), wb_data_buffer, (short) 0);
-            addr_offset = addr_offset + 2;
+    public boolean write(LedFrame image) {
+        if (wb==null) return false;
+        return commit(image.getData(), Math.min(image.size(), LEDS));
+    }
+
+    /**
+     * Send only the LEDs that differ from the shadow frame, adjacent dirty LEDs are
+     * coalesced in one auto-increment burst and every burst of the frame goes out
+     * under a single bus lock acquisition.
+     */
+    private boolean commit(byte[] data, int leds) {
+        batch.clear();
+        int runs = 0;
+        int led = 0;
+        while (led < leds) {
+            if (shadowValid && !isDirty(data, led)) {
+                led++;
+                continue;
+            }
+            int start = led;
+            while (led < leds && (!shadowValid || isDirty(data, led))) led++;
+
+            runOffset[runs] = start * BYTES_PER_LED;
+            runLength[runs] = (led - start) * BYTES_PER_LED;
+            short add = (short) (kEverloopBaseAddress + start * WORDS_PER_LED);
+            batch.write(add, data, runOffset[runs], runLength[runs]);
+            runs++;
         }
-        this.ledImage=ledImage;
+        if (!batch.execute()) {
+            // FPGA state is unknown now, next write goes out complete
+            shadowValid = false;
+            return false;
+        }
+        int sent = 0;
+        for (int i = 0; i < runs; i++) {
+            System.arraycopy(data, runOffset[i], shadow, runOffset[i], runLength[i]);
+            sent += runLength[i];
+        }
+        burstsSent += runs;
+        if (sent == 0) framesSkipped++;
+        framesWritten++;
+        bytesSent += sent;
+        bytesSaved += leds * BYTES_PER_LED - sent;
+        if (leds == LEDS) shadowValid = true;
         return true;
     }
 
+    private boolean isDirty(byte[] data, int led) {
+        int offset = led * BYTES_PER_LED;
+        return data[offset] != shadow[offset]
+                || data[offset + 1] != shadow[offset + 1]
+                || data[offset + 2] != shadow[offset + 2]
+                || data[offset + 3] != shadow[offset + 3];
+    }
+
+    /**
+     * Forget the shadow frame, e.g. after the FPGA was reprogrammed, so the next
+     * write sends every LED.
+     */
+    public void invalidate() {
+        shadowValid = false;
+    }
+
+    public long getFramesWritten() {
+        return framesWritten;
+    }
+
+    public long getFramesSkipped() {
+        return framesSkipped;
+    }
+
+    public long getBurstsSent() {
+        return burstsSent;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getBytesSaved() {
+        return bytesSaved;
+    }
+
     public void clear(){
         LedValue led;
         Iterator<LedValue> it = ledImage.iterator();
@@ -50,7 +143,7 @@ public class Everloop extends SensorBase {
     }
 
     public void init(){
-        for(int i=0;i<35;i++){
+        for(int i=0;i<LEDS;i++){
             ledImage.add(new LedValue());
         }
     }
@@ -0,0 +1,167 @@
+package admobilize.matrix.gt.matrix;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Double-buffered Everloop output driven by its own render thread.
+ *
+ * Producers draw on {@link #getBackBuffer()} and publish it with {@link #swapBuffers()};
+ * the render thread wakes up at a fixed rate and pushes the latest published frame to
+ * the {@link Everloop}. Published frames sit in a middle slot that both sides exchange
+ * with a CAS, so producers never wait for the SPI bus and the render thread never waits
+ * for a producer. A frame published again before the render thread took it is counted
+ * as dropped.
+ */
+
+public class EverloopRenderer {
+
+    private static final int FRESH = 0x4;
+    private static final int INDEX_MASK = 0x3;
+
+    private final Everloop everloop;
+    private final long periodNanos;
+    private final LedFrame[] buffers = new LedFrame[3];
+
+    // index of the published frame, plus the FRESH bit while it was not rendered yet
+    private final AtomicInteger published = new AtomicInteger(1);
+    private int back = 0;   // owned by the producer
+    private int front = 2;  // owned by the render thread
+
+    private volatile boolean running;
+    private Thread thread;
+
+    private volatile long framesPosted;
+    private volatile long framesRendered;
+    private volatile long framesDropped;
+    private volatile long ticks;
+    private volatile long ticksMissed;
+    private volatile long jitterSumNanos;
+    private volatile long jitterMaxNanos;
+
+    public EverloopRenderer(Everloop everloop, int frameRate) {
+        if (frameRate <= 0) throw new IllegalArgumentException("Invalid frame rate: " + frameRate);
+        this.everloop = everloop;
+        this.periodNanos = TimeUnit.SECONDS.toNanos(1) / frameRate;
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = new LedFrame(Everloop.LEDS);
+        }
+    }
+
+    /**
+     * Frame the producer can draw on. It holds the last published image, so
+     * animations can keep drawing incrementally. Single producer only.
+     */
+    public LedFrame getBackBuffer() {
+        return buffers[back];
+    }
+
+    /**
+     * Publish the back buffer for the next render tick. Never blocks.
+     */
+    public void swapBuffers() {
+        LedFrame posted = buffers[back];
+        int previous;
+        do {
+            previous = published.get();
+        } while (!published.compareAndSet(previous, back | FRESH));
+        if ((previous & FRESH) != 0) framesDropped++;
+        framesPosted++;
+        back = previous & INDEX_MASK;
+        buffers[back].copyFrom(posted);
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                renderLoop();
+            }
+        }, EverloopRenderer.class.getSimpleName());
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread == null) return;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+        // push the frame published after the last tick
+        renderPublished();
+    }
+
+    private void renderLoop() {
+        long deadline = System.nanoTime() + periodNanos;
+        while (running) {
+            long now = System.nanoTime();
+            if (now < deadline) {
+                LockSupport.parkNanos(deadline - now);
+                if (Thread.interrupted() && !running) return;
+                continue;
+            }
+            long late = now - deadline;
+            ticks++;
+            jitterSumNanos += late;
+            if (late > jitterMaxNanos) jitterMaxNanos = late;
+            if (late >= periodNanos) {
+                // we lost whole periods, keep the cadence instead of bursting to catch up
+                ticksMissed += late / periodNanos;
+                deadline += (late / periodNanos) * periodNanos;
+            }
+            deadline += periodNanos;
+
+            renderPublished();
+        }
+    }
+
+    private void renderPublished() {
+        int current = published.get();
+        if ((current & FRESH) != 0 && published.compareAndSet(current, front)) {
+            front = current & INDEX_MASK;
+            everloop.write(buffers[front]);
+            framesRendered++;
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public long getFramesPosted() {
+        return framesPosted;
+    }
+
+    public long getFramesRendered() {
+        return framesRendered;
+    }
+
+    public long getFramesDropped() {
+        return framesDropped;
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+
+    public long getTicksMissed() {
+        return ticksMissed;
+    }
+
+    public long getMeanJitterNanos() {
+        long count = ticks;
+        return count == 0 ? 0 : jitterSumNanos / count;
+    }
+
+    public long getMaxJitterNanos() {
+        return jitterMaxNanos;
+    }
+}
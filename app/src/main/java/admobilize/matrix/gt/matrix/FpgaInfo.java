@@ -0,0 +1,56 @@
+package admobilize.matrix.gt.matrix;
+
+/**
+ * Identification words of the running FPGA design at kConfBaseAddress: the design name
+ * and its version, two little-endian 32 bit words. An unconfigured FPGA answers all
+ * zeros or all ones.
+ */
+
+public class FpgaInfo extends SensorBase {
+
+    private static final int INFO_LENGTH = 8;
+
+    private final byte[] data = new byte[INFO_LENGTH];
+
+    private int name;
+    private int version;
+
+    public FpgaInfo(Wishbone wb) {
+        super(wb);
+    }
+
+    public boolean read() {
+        if (wb == null) return false;
+        if (!wb.SpiReadBurst((short) kConfBaseAddress, data, INFO_LENGTH)) return false;
+        name = readInt(data, 0);
+        version = readInt(data, 4);
+        return true;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF)
+                | (data[offset + 1] & 0xFF) << 8
+                | (data[offset + 2] & 0xFF) << 16
+                | (data[offset + 3] & 0xFF) << 24;
+    }
+
+    /**
+     * @return true if the last read found a design loaded
+     */
+    public boolean isConfigured() {
+        return name != 0 && name != -1;
+    }
+
+    public int getName() {
+        return name;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%08x v%08x", name, version);
+    }
+}
@@ -1,31 +1,49 @@
 package admobilize.matrix.gt.matrix;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-
 import admobilize.matrix.gt.Config;
 
 /**
  * Created by Antonio Vanegas @hpsaturn on 12/20/16.
  */
 
-public class Humidity extends SensorBase {
+public class Humidity extends McuSensor {
 
     private static final String TAG = Humidity.class.getSimpleName();
     private static final boolean DEBUG = Config.DEBUG;
+    private static final long SAMPLING_PERIOD_MS = 1000;
 
     private float humidity;
     private float temperature;
 
+    private final byte[] data = new byte[8];
+
     public Humidity(Wishbone wb) {
-        super(wb);
+        super(wb, SAMPLING_PERIOD_MS);
+    }
+
+    @Override
+    public int getMemoryOffset() {
+        return kMemoryOffsetHumidity;
+    }
+
+    @Override
+    public int getDataLength() {
+        return data.length;
     }
 
     public void read (){
-        byte[] data = new byte[8];
-        wb.SpiRead((short) (kMCUBaseAddress+(kMemoryOffsetHumidity >> 1)),data,8);
-        this.humidity =ByteBuffer.wrap(data,0,4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
-        this.temperature=ByteBuffer.wrap(data,4,4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
+        update(data);
+    }
+
+    @Override
+    void decode(byte[] data, int offset) {
+        this.humidity =readFloat(data, offset);
+        this.temperature=readFloat(data, offset + 4);
+    }
+
+    @Override
+    void store(SensorSnapshot snapshot) {
+        snapshot.setHumidity(humidity, temperature);
     }
 
     public float getHumidity() {
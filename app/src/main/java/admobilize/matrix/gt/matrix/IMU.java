@@ -1,21 +1,16 @@
 package admobilize.matrix.gt.matrix;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-
 import admobilize.matrix.gt.Config;
 
 /**
  * Created by Antonio Vanegas @hpsaturn on 12/20/16.
  */
 
-public class IMU extends SensorBase {
+public class IMU extends McuSensor {
 
     private static final String TAG = IMU.class.getSimpleName();
     private static final boolean DEBUG = Config.DEBUG;
+    private static final long SAMPLING_PERIOD_MS = 10;
 
     private float yaw;
     private float pitch;
@@ -33,26 +28,49 @@ public class IMU extends SensorBase {
     private float my;
     private float mz;
 
+    private final byte[] data = new byte[48];
+
 
     public IMU(Wishbone wb) {
-        super(wb);
+        super(wb, SAMPLING_PERIOD_MS);
+    }
+
+    @Override
+    public int getMemoryOffset() {
+        return kMemoryOffsetIMU;
+    }
+
+    @Override
+    public int getDataLength() {
+        return data.length;
     }
 
     public void read (){
-        byte[] data = new byte[48];
-        wb.SpiRead((short) (kMCUBaseAddress+(kMemoryOffsetIMU >> 1)),data,48);
-        this.yaw =ByteBuffer.wrap(data,0,4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
-        this.pitch =ByteBuffer.wrap(data,4,4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
-        this.roll =ByteBuffer.wrap(data,8,4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
-        this.ax=ByteBuffer.wrap(data,12,4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
-        this.ay=ByteBuffer.wrap(data,16,4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
-        this.az=ByteBuffer.wrap(data,20,4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
-        this.gx=ByteBuffer.wrap(data,24,4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
-        this.gy=ByteBuffer.wrap(data,28,4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
-        this.gz=ByteBuffer.wrap(data,32,4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
-        this.mx=ByteBuffer.wrap(data,36,4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
-        this.my=ByteBuffer.wrap(data,40,4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
-        this.mz=ByteBuffer.wrap(data,44,4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
+        update(data);
+    }
+
+    @Override
+    void decode(byte[] data, int offset) {
+        this.yaw =readFloat(data, offset);
+        this.pitch =readFloat(data, offset + 4);
+        this.roll =readFloat(data, offset + 8);
+        this.ax=readFloat(data, offset + 12);
+        this.ay=readFloat(data, offset + 16);
+        this.az=readFloat(data, offset + 20);
+        this.gx=readFloat(data, offset + 24);
+        this.gy=readFloat(data, offset + 28);
+        this.gz=readFloat(data, offset + 32);
+        this.mx=readFloat(data, offset + 36);
+        this.my=readFloat(data, offset + 40);
+        this.mz=readFloat(data, offset + 44);
+    }
+
+    @Override
+    void store(SensorSnapshot snapshot) {
+        snapshot.setOrientation(yaw, pitch, roll);
+        snapshot.setAcceleration(ax, ay, az);
+        snapshot.setGyroscope(gx, gy, gz);
+        snapshot.setMagnetometer(mx, my, mz);
     }
 
     public float getYaw() {
@@ -0,0 +1,154 @@
+package admobilize.matrix.gt.matrix;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Preallocated history of timestamped {@link IMU} samples for a single producer and any
+ * number of consumers.
+ *
+ * Samples are stored in primitive arrays, {@link #FIELDS} floats each in the order yaw,
+ * pitch, roll, ax, ay, az, gx, gy, gz, mx, my, mz. Consumers copy windows out under an
+ * optimistic {@link StampedLock} stamp and retry if the producer wrote meanwhile, so
+ * they never block the producer nor each other. A consumer slower than the producer
+ * loses the oldest samples, which are counted by its {@link Reader}.
+ */
+
+public class ImuRingBuffer {
+
+    public static final int FIELDS = 12;
+
+    private final int capacity;
+    private final int mask;
+    private final long[] timestamps;
+    private final float[] values;
+
+    private final StampedLock seqlock = new StampedLock();
+    private volatile long sequence;  // samples written so far
+
+    /**
+     * @param capacity samples kept, rounded up to a power of two
+     */
+    public ImuRingBuffer(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        this.capacity = size;
+        this.mask = size - 1;
+        this.timestamps = new long[size];
+        this.values = new float[size * FIELDS];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void add(long timestamp, IMU imu) {
+        long stamp = seqlock.writeLock();
+        try {
+            int slot = (int) (sequence & mask);
+            int offset = slot * FIELDS;
+            timestamps[slot] = timestamp;
+            values[offset] = imu.getYaw();
+            values[offset + 1] = imu.getPitch();
+            values[offset + 2] = imu.getRoll();
+            values[offset + 3] = imu.getAx();
+            values[offset + 4] = imu.getAy();
+            values[offset + 5] = imu.getAz();
+            values[offset + 6] = imu.getGx();
+            values[offset + 7] = imu.getGy();
+            values[offset + 8] = imu.getGz();
+            values[offset + 9] = imu.getMx();
+            values[offset + 10] = imu.getMy();
+            values[offset + 11] = imu.getMz();
+            sequence++;
+        } finally {
+            seqlock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Copy the most recent samples, oldest first.
+     *
+     * @return number of samples copied, at most {@code count}
+     */
+    public int latest(int count, long[] outTimestamps, float[] outValues) {
+        while (true) {
+            long stamp = seqlock.tryOptimisticRead();
+            long head = sequence;
+            long start = Math.max(0, head - Math.min(count, capacity));
+            int copied = copy(start, head, outTimestamps, outValues);
+            if (stamp != 0 && seqlock.validate(stamp)) return copied;
+            Thread.yield();
+        }
+    }
+
+    public Reader newReader() {
+        return new Reader(sequence);
+    }
+
+    private int copy(long from, long to, long[] outTimestamps, float[] outValues) {
+        int count = (int) (to - from);
+        int slot = (int) (from & mask);
+        int first = Math.min(count, capacity - slot);
+        System.arraycopy(timestamps, slot, outTimestamps, 0, first);
+        System.arraycopy(values, slot * FIELDS, outValues, 0, first * FIELDS);
+        if (first < count) {
+            System.arraycopy(timestamps, 0, outTimestamps, first, count - first);
+            System.arraycopy(values, 0, outValues, first * FIELDS, (count - first) * FIELDS);
+        }
+        return count;
+    }
+
+    /**
+     * Consumer cursor, one per consumer thread.
+     */
+    public class Reader {
+
+        private long position;
+        private long lost;
+
+        private Reader(long position) {
+            this.position = position;
+        }
+
+        /**
+         * Copy the samples written since the last drain, oldest first, and move past them.
+         *
+         * @return number of samples copied, at most {@code max}
+         */
+        public int drain(long[] outTimestamps, float[] outValues, int max) {
+            while (true) {
+                long stamp = seqlock.tryOptimisticRead();
+                long head = sequence;
+                long start = Math.max(position, head - capacity);
+                long end = Math.min(head, start + max);
+                int copied = copy(start, end, outTimestamps, outValues);
+                if (stamp != 0 && seqlock.validate(stamp)) {
+                    lost += start - position;
+                    position = end;
+                    return copied;
+                }
+                Thread.yield();
+            }
+        }
+
+        public int available() {
+            return (int) Math.min(sequence - position, capacity);
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        /**
+         * Samples overwritten before this reader could drain them.
+         */
+        public long getLost() {
+            return lost;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package admobilize.matrix.gt.matrix;
+
+import java.util.List;
+
+/**
+ * Packed Everloop frame. Every LED takes four bytes stored in the order the FPGA
+ * expects them at kEverloopBaseAddress (green, red, blue, white), so a frame can be
+ * diffed and sent as is. None of the operations allocate.
+ */
+
+public class LedFrame {
+
+    static final int BYTES_PER_LED = 4;
+
+    private static final int GREEN = 0;
+    private static final int RED = 1;
+    private static final int BLUE = 2;
+    private static final int WHITE = 3;
+
+    private final byte[] data;
+    private final int size;
+
+    public LedFrame(int size) {
+        this.size = size;
+        this.data = new byte[size * BYTES_PER_LED];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void set(int led, int red, int green, int blue, int white) {
+        int offset = led * BYTES_PER_LED;
+        data[offset + GREEN] = (byte) green;
+        data[offset + RED] = (byte) red;
+        data[offset + BLUE] = (byte) blue;
+        data[offset + WHITE] = (byte) white;
+    }
+
+    public int getRed(int led) {
+        return data[led * BYTES_PER_LED + RED] & 0xFF;
+    }
+
+    public int getGreen(int led) {
+        return data[led * BYTES_PER_LED + GREEN] & 0xFF;
+    }
+
+    public int getBlue(int led) {
+        return data[led * BYTES_PER_LED + BLUE] & 0xFF;
+    }
+
+    public int getWhite(int led) {
+        return data[led * BYTES_PER_LED + WHITE] & 0xFF;
+    }
+
+    public void fill(int red, int green, int blue, int white) {
+        fill(0, size, red, green, blue, white);
+    }
+
+    /**
+     * Set the LEDs from {@code from} (inclusive) to {@code to} (exclusive) to the same color.
+     */
+    public void fill(int from, int to, int red, int green, int blue, int white) {
+        for (int led = from; led < to; led++) {
+            set(led, red, green, blue, white);
+        }
+    }
+
+    public void clear() {
+        fill(0, 0, 0, 0);
+    }
+
+    public void copyFrom(LedFrame other) {
+        System.arraycopy(other.data, 0, data, 0, Math.min(data.length, other.data.length));
+    }
+
+    /**
+     * Move every channel towards {@code other}, {@code alpha} goes from 0 (keep this
+     * frame) to 255 (take the other frame).
+     */
+    public void blend(LedFrame other, int alpha) {
+        int length = Math.min(data.length, other.data.length);
+        for (int i = 0; i < length; i++) {
+            int from = data[i] & 0xFF;
+            int to = other.data[i] & 0xFF;
+            data[i] = (byte) (from + (to - from) * alpha / 255);
+        }
+    }
+
+    /**
+     * Load the frame from the legacy {@link Everloop.LedValue} list.
+     */
+    public void fromLedValues(List<Everloop.LedValue> leds) {
+        int count = Math.min(size, leds.size());
+        for (int led = 0; led < count; led++) {
+            Everloop.LedValue value = leds.get(led);
+            int offset = led * BYTES_PER_LED;
+            data[offset + GREEN] = value.green;
+            data[offset + RED] = value.red;
+            data[offset + BLUE] = value.blue;
+            data[offset + WHITE] = value.white;
+        }
+    }
+
+    /**
+     * Copy the frame back into the legacy {@link Everloop.LedValue} list.
+     */
+    public void toLedValues(List<Everloop.LedValue> leds) {
+        int count = Math.min(size, leds.size());
+        for (int led = 0; led < count; led++) {
+            Everloop.LedValue value = leds.get(led);
+            int offset = led * BYTES_PER_LED;
+            value.green = data[offset + GREEN];
+            value.red = data[offset + RED];
+            value.blue = data[offset + BLUE];
+            value.white = data[offset + WHITE];
+        }
+    }
+
+    byte[] getData() {
+        return data;
+    }
+}
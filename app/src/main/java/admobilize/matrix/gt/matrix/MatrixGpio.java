@@ -0,0 +1,101 @@
+package admobilize.matrix.gt.matrix;
+
+/**
+ * The 16 GPIOs of the Creator at kGPIOBaseAddress. Direction and output values are
+ * cached, so changing any number of pins costs one masked register write (and none
+ * when nothing changes), and all inputs are read with one transaction. Bits of a mask
+ * beyond the 16 pins are ignored.
+ */
+
+public class MatrixGpio extends SensorBase {
+
+    public static final int PINS = 16;
+    private static final int ALL_PINS = (1 << PINS) - 1;
+
+    // register offsets (16 bit words) from kGPIOBaseAddress
+    private static final int REG_DIRECTION = 0;
+    private static final int REG_VALUE = 1;
+
+    private final byte[] data = new byte[2];
+
+    private int direction;  // bit set: output
+    private int value;
+
+    public MatrixGpio(Wishbone wb) {
+        super(wb);
+    }
+
+    /**
+     * Make the pins in {@code mask} outputs where {@code outputs} has the bit set and
+     * inputs elsewhere.
+     */
+    public boolean setDirection(int mask, int outputs) {
+        mask &= ALL_PINS;
+        int next = (direction & ~mask) | (outputs & mask);
+        if (next == direction) return true;
+        if (!writeRegister(REG_DIRECTION, next)) return false;
+        direction = next;
+        return true;
+    }
+
+    public boolean setDirection(int pin, boolean output) {
+        int bit = bit(pin);
+        return setDirection(bit, output ? bit : 0);
+    }
+
+    /**
+     * Drive the pins in {@code mask} to the bits of {@code values}, other pins keep
+     * their value.
+     */
+    public boolean write(int mask, int values) {
+        mask &= ALL_PINS;
+        int next = (value & ~mask) | (values & mask);
+        if (next == value) return true;
+        if (!writeRegister(REG_VALUE, next)) return false;
+        value = next;
+        return true;
+    }
+
+    public boolean setValue(int pin, boolean high) {
+        int bit = bit(pin);
+        return write(bit, high ? bit : 0);
+    }
+
+    /**
+     * Read the level of every pin in one transaction.
+     *
+     * @return pin levels as bits, or -1 on bus error
+     */
+    public int readAll() {
+        if (!wb.SpiRead16((short) (kGPIOBaseAddress + REG_VALUE), data, 0)) return -1;
+        return (data[0] & 0xFF) | (data[1] & 0xFF) << 8;
+    }
+
+    public boolean getValue(int pin) {
+        int bit = bit(pin);
+        int levels = readAll();
+        return levels != -1 && (levels & bit) != 0;
+    }
+
+    public int getDirection() {
+        return direction;
+    }
+
+    /**
+     * Output values last written, without touching the bus.
+     */
+    public int getOutputs() {
+        return value;
+    }
+
+    private static int bit(int pin) {
+        if (pin < 0 || pin >= PINS) throw new IllegalArgumentException("Invalid pin: " + pin);
+        return 1 << pin;
+    }
+
+    private boolean writeRegister(int register, int word) {
+        data[0] = (byte) word;
+        data[1] = (byte) (word >> 8);
+        return wb.SpiWrite((short) (kGPIOBaseAddress + register), data, (short) 0);
+    }
+}
@@ -0,0 +1,56 @@
+package admobilize.matrix.gt.matrix;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sensor whose values live in the MCU block at kMCUBaseAddress. Every sensor declares
+ * where its registers are and how often it needs to be sampled, so a
+ * {@link SensorScheduler} can give the bus to the sensors that need it.
+ */
+
+public abstract class McuSensor extends SensorBase {
+
+    private volatile long samplingPeriodNanos;
+
+    protected McuSensor(Wishbone wb, long samplingPeriodMs) {
+        super(wb);
+        this.samplingPeriodNanos = TimeUnit.MILLISECONDS.toNanos(samplingPeriodMs);
+    }
+
+    /**
+     * Byte offset of the sensor registers inside the MCU block.
+     */
+    public abstract int getMemoryOffset();
+
+    /**
+     * Size in bytes of the sensor registers.
+     */
+    public abstract int getDataLength();
+
+    /**
+     * Decode the sensor registers found at {@code offset} in {@code data}.
+     */
+    abstract void decode(byte[] data, int offset);
+
+    /**
+     * Copy the last decoded values into {@code snapshot}.
+     */
+    abstract void store(SensorSnapshot snapshot);
+
+    public long getSamplingPeriodNanos() {
+        return samplingPeriodNanos;
+    }
+
+    public void setSamplingPeriod(long period, TimeUnit unit) {
+        if (period <= 0) throw new IllegalArgumentException("Invalid sampling period: " + period);
+        this.samplingPeriodNanos = unit.toNanos(period);
+    }
+
+    protected boolean update(byte[] data) {
+        if (!wb.SpiRead((short) (kMCUBaseAddress + (getMemoryOffset() >> 1)), data, getDataLength())) {
+            return false;
+        }
+        decode(data, 0);
+        return true;
+    }
+}
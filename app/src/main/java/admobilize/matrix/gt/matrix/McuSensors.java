@@ -0,0 +1,23 @@
+package admobilize.matrix.gt.matrix;
+
+/**
+ * Reads the whole MCU sensor block (UV, Pressure, Humidity and IMU, offsets 0x00 to
+ * kMemoryOffsetMCU) in a single SPI burst and decodes it into a {@link SensorSnapshot}.
+ */
+
+public class McuSensors extends SensorBase {
+
+    private final byte[] data = new byte[kMemoryOffsetMCU];
+
+    public McuSensors(Wishbone wb) {
+        super(wb);
+    }
+
+    public boolean read(SensorSnapshot snapshot) {
+        if (!wb.SpiRead((short) kMCUBaseAddress, data, data.length)) {
+            return false;
+        }
+        snapshot.decode(this, data, System.nanoTime());
+        return true;
+    }
+}
@@ -0,0 +1,44 @@
+package admobilize.matrix.gt.matrix;
+
+/**
+ * Microphone array buffer at kMicrophoneArrayBaseAddress: the FPGA keeps the last
+ * frame of 16 bit little-endian samples for the 8 microphones, interleaved by sample.
+ */
+
+public class MicArray extends SensorBase {
+
+    public static final int CHANNELS = 8;
+    public static final int SAMPLES_PER_FRAME = 128;
+    public static final int SAMPLE_RATE = 16000;
+
+    private final byte[] data = new byte[CHANNELS * SAMPLES_PER_FRAME * 2];
+
+    public MicArray(Wishbone wb) {
+        super(wb);
+    }
+
+    /**
+     * Fetch the current frame with one burst and decode it into {@code block}.
+     */
+    public boolean read(PcmBlock block) {
+        if (!wb.SpiReadBurst((short) kMicrophoneArrayBaseAddress, data, data.length)) return false;
+        short[] samples = block.getSamples();
+        int count = Math.min(samples.length, data.length / 2);
+        for (int i = 0; i < count; i++) {
+            samples[i] = (short) ((data[2 * i] & 0xFF) | (data[2 * i + 1] << 8));
+        }
+        block.timestamp = System.nanoTime();
+        return true;
+    }
+
+    public static PcmBlock newBlock() {
+        return new PcmBlock(CHANNELS, SAMPLES_PER_FRAME);
+    }
+
+    /**
+     * Time the FPGA needs to fill one frame.
+     */
+    public static long getFramePeriodNanos() {
+        return 1000000000L * SAMPLES_PER_FRAME / SAMPLE_RATE;
+    }
+}
@@ -0,0 +1,180 @@
+package admobilize.matrix.gt.matrix;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Streams microphone array frames on its own thread.
+ *
+ * Every frame period the capture thread drains the FPGA buffer into a free
+ * {@link PcmBlock} from a preallocated pool and queues it for consumers. Blocks move
+ * by reference: a consumer takes a block, processes it and {@link #release(PcmBlock)
+ * releases} it back to the pool. When consumers keep every block busy the frame is
+ * still drained, so the next one stays aligned, but it is dropped and counted as an
+ * overrun.
+ * <p>
+ * The capture thread is paced by {@code System.nanoTime()} deadlines only: the mic
+ * block exposes no frame or sequence counter, and the FPGA interrupt is not wired to
+ * this driver. Drift between the local clock and the FPGA sample clock therefore
+ * repeats or skips hardware frames now and then, and a read may overlap the FPGA
+ * rewriting the buffer. None of this is detected: {@link PcmBlock#getSequence()}
+ * numbers the reads, not the hardware frames, and {@link #getOverruns()} counts only
+ * frames dropped for lack of a free block. After a stall the thread skips the lost
+ * periods ({@link #getTicksSkipped()}) rather than reading back to back. Callers
+ * that pace reads from the microphone IRQ through {@link #captureFrame()} avoid the
+ * drift.
+ */
+
+public class MicArrayCapture {
+
+    private final MicArray micArray;
+    private final long periodNanos;
+    private final ArrayBlockingQueue<PcmBlock> free;
+    private final ArrayBlockingQueue<PcmBlock> ready;
+    private final PcmBlock discard = MicArray.newBlock();
+
+    private volatile boolean running;
+    private Thread thread;
+
+    private volatile long frames;
+    private volatile long overruns;
+    private volatile long readErrors;
+    private volatile long ticksSkipped;
+
+    public MicArrayCapture(MicArray micArray, int blocks) {
+        if (blocks <= 0) throw new IllegalArgumentException("Invalid block count: " + blocks);
+        this.micArray = micArray;
+        this.periodNanos = MicArray.getFramePeriodNanos();
+        this.free = new ArrayBlockingQueue<>(blocks);
+        this.ready = new ArrayBlockingQueue<>(blocks);
+        for (int i = 0; i < blocks; i++) {
+            free.add(MicArray.newBlock());
+        }
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                captureLoop();
+            }
+        }, MicArrayCapture.class.getSimpleName());
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread == null) return;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    private void captureLoop() {
+        long deadline = System.nanoTime();
+        while (running) {
+            long now = System.nanoTime();
+            if (now < deadline) {
+                LockSupport.parkNanos(deadline - now);
+                continue;
+            }
+            long late = now - deadline;
+            if (late > periodNanos) {
+                // stalled for whole periods, restart the cadence instead of reading the
+                // same FPGA buffer back to back to catch up
+                ticksSkipped += late / periodNanos;
+                deadline = now + periodNanos;
+            } else {
+                deadline += periodNanos;
+            }
+            captureFrame();
+        }
+    }
+
+    /**
+     * Read one frame. Called by the capture thread, or directly when the caller paces
+     * reads itself (e.g. from the microphone IRQ).
+     */
+    public boolean captureFrame() {
+        PcmBlock block = free.poll();
+        boolean overrun = block == null;
+        if (overrun) block = discard;
+        if (!micArray.read(block)) {
+            readErrors++;
+            if (!overrun) free.offer(block);
+            return false;
+        }
+        block.sequence = frames++;
+        if (overrun) {
+            overruns++;
+            return false;
+        }
+        ready.offer(block);
+        return true;
+    }
+
+    /**
+     * Next captured block, or null if none arrives within {@code timeout}.
+     */
+    public PcmBlock poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return ready.poll(timeout, unit);
+    }
+
+    /**
+     * Next captured block, or null if none is queued.
+     */
+    public PcmBlock poll() {
+        return ready.poll();
+    }
+
+    public PcmBlock take() throws InterruptedException {
+        return ready.take();
+    }
+
+    /**
+     * Give a block obtained from {@link #poll()} or {@link #take()} back to the pool.
+     */
+    public void release(PcmBlock block) {
+        free.offer(block);
+    }
+
+    public int getQueued() {
+        return ready.size();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Frames read but dropped because consumers held every block. Not a hardware drop
+     * count, see the class documentation.
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+
+    public long getReadErrors() {
+        return readErrors;
+    }
+
+    /**
+     * Frame periods the capture thread skipped after a stall, e.g. a long bus
+     * transaction or a GC pause. Those hardware frames were never read.
+     */
+    public long getTicksSkipped() {
+        return ticksSkipped;
+    }
+}
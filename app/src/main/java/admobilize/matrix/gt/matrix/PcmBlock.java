@@ -0,0 +1,45 @@
+package admobilize.matrix.gt.matrix;
+
+/**
+ * One frame of microphone array samples. Samples are interleaved the way the FPGA
+ * stores them: sample {@code s} of channel {@code c} is at {@code s * channels + c}.
+ * Blocks are preallocated by {@link MicArrayCapture} and handed over by reference.
+ */
+
+public class PcmBlock {
+
+    private final short[] samples;
+    private final int channels;
+
+    long timestamp;  // System.nanoTime() when the frame was read
+    long sequence;   // read number since the capture started, not a hardware frame counter
+
+    public PcmBlock(int channels, int samplesPerChannel) {
+        this.channels = channels;
+        this.samples = new short[channels * samplesPerChannel];
+    }
+
+    public short[] getSamples() {
+        return samples;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getSamplesPerChannel() {
+        return samples.length / channels;
+    }
+
+    public short getSample(int channel, int sample) {
+        return samples[sample * channels + channel];
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+}
@@ -1,33 +1,51 @@
 package admobilize.matrix.gt.matrix;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-
 import admobilize.matrix.gt.Config;
 
 /**
  * Created by Antonio Vanegas @hpsaturn on 12/20/16.
  */
 
-public class Pressure extends SensorBase {
+public class Pressure extends McuSensor {
 
     private static final String TAG = Pressure.class.getSimpleName();
     private static final boolean DEBUG = Config.DEBUG;
+    private static final long SAMPLING_PERIOD_MS = 1000;
 
     private float altitude;
     private float pressure;
     private float temperature;
 
+    private final byte[] data = new byte[12];
+
     public Pressure(Wishbone wb) {
-        super(wb);
+        super(wb, SAMPLING_PERIOD_MS);
+    }
+
+    @Override
+    public int getMemoryOffset() {
+        return kMemoryOffsetPressure;
+    }
+
+    @Override
+    public int getDataLength() {
+        return data.length;
     }
 
     public void read (){
-        byte[] data = new byte[12];
-        wb.SpiRead((short) (kMCUBaseAddress+(kMemoryOffsetPressure >> 1)),data,12);
-        this.altitude=ByteBuffer.wrap(data,0,4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
-        this.pressure=ByteBuffer.wrap(data,4,4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
-        this.temperature=ByteBuffer.wrap(data,8,4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
+        update(data);
+    }
+
+    @Override
+    void decode(byte[] data, int offset) {
+        this.altitude=readFloat(data, offset);
+        this.pressure=readFloat(data, offset + 4);
+        this.temperature=readFloat(data, offset + 8);
+    }
+
+    @Override
+    void store(SensorSnapshot snapshot) {
+        snapshot.setPressure(altitude, pressure, temperature);
     }
 
     public float getAltitude() {
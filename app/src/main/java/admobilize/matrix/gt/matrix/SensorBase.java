@@ -10,10 +10,12 @@ public abstract class SensorBase {
     public Wishbone wb;
 
     public SensorBase(Wishbone wb) {
-        this.wb = wb;
+        // account the bus usage of every driver separately
+        this.wb = wb == null ? null : wb.tagged(getClass().getSimpleName());
     }
 
     // FPGA Wishbone address map
+    public int kConfBaseAddress = 0x0000;
     public int kMicrophoneArrayBaseAddress = 0x1800;
     public int kEverloopBaseAddress = 0x2000;
     public int kGPIOBaseAddress = 0x2800;
@@ -26,4 +28,15 @@ public abstract class SensorBase {
     public int kMemoryOffsetIMU = 0x30;
     public int kMemoryOffsetMCU = 0x90;
 
+    /**
+     * Decode the little-endian float the MCU stores at {@code offset}, without allocating.
+     */
+    protected static float readFloat(byte[] data, int offset) {
+        int bits = (data[offset] & 0xFF)
+                | (data[offset + 1] & 0xFF) << 8
+                | (data[offset + 2] & 0xFF) << 16
+                | (data[offset + 3] & 0xFF) << 24;
+        return Float.intBitsToFloat(bits);
+    }
+
 }
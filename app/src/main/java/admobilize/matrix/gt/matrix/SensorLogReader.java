@@ -0,0 +1,173 @@
+package admobilize.matrix.gt.matrix;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Reads a segment written by {@link SensorLogger} and exports logs to CSV.
+ */
+
+public class SensorLogReader {
+
+    private static final String CSV_HEADER = "timestamp_ns,wall_clock_ms,sensors,"
+            + "uv,altitude,pressure,pressure_temperature,humidity,humidity_temperature,"
+            + "yaw,pitch,roll,ax,ay,az,gx,gy,gz,mx,my,mz\n";
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final long wallClockMillis;
+    private final long nanoTime;
+
+    public SensorLogReader(File file) throws IOException {
+        this.file = file;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.capacity() < SensorLogger.HEADER_SIZE || buffer.getInt(0) != SensorLogger.MAGIC) {
+            throw new IOException("Not a sensor log: " + file);
+        }
+        if (buffer.getShort(4) != SensorLogger.VERSION
+                || buffer.getShort(6) != SensorLogger.RECORD_SIZE) {
+            throw new IOException("Unsupported sensor log version: " + file);
+        }
+        wallClockMillis = buffer.getLong(8);
+        nanoTime = buffer.getLong(16);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getRecordCount() {
+        // never trust the count beyond what the file holds
+        int count = buffer.getInt(SensorLogger.COUNT_OFFSET);
+        int capacity = (buffer.capacity() - SensorLogger.HEADER_SIZE) / SensorLogger.RECORD_SIZE;
+        return Math.max(0, Math.min(count, capacity));
+    }
+
+    /**
+     * Wall clock time of a record, from the clocks sampled when the segment was created.
+     */
+    public long toWallClockMillis(long timestamp) {
+        return wallClockMillis + (timestamp - nanoTime) / 1000000L;
+    }
+
+    /**
+     * Decode record {@code index} into {@code out}.
+     *
+     * @return SensorLogger.SENSOR_* flags of the record
+     */
+    public int read(int index, SensorSnapshot out) {
+        if (index < 0 || index >= getRecordCount()) {
+            throw new IndexOutOfBoundsException("Invalid record: " + index);
+        }
+        int position = SensorLogger.HEADER_SIZE + index * SensorLogger.RECORD_SIZE;
+        out.setTimestamp(buffer.getLong(position));
+        int sensors = buffer.getInt(position + 8);
+        position += 12;
+        out.setUV(buffer.getFloat(position));
+        out.setPressure(buffer.getFloat(position + 4), buffer.getFloat(position + 8),
+                buffer.getFloat(position + 12));
+        out.setHumidity(buffer.getFloat(position + 16), buffer.getFloat(position + 20));
+        out.setOrientation(buffer.getFloat(position + 24), buffer.getFloat(position + 28),
+                buffer.getFloat(position + 32));
+        out.setAcceleration(buffer.getFloat(position + 36), buffer.getFloat(position + 40),
+                buffer.getFloat(position + 44));
+        out.setGyroscope(buffer.getFloat(position + 48), buffer.getFloat(position + 52),
+                buffer.getFloat(position + 56));
+        out.setMagnetometer(buffer.getFloat(position + 60), buffer.getFloat(position + 64),
+                buffer.getFloat(position + 68));
+        return sensors;
+    }
+
+    /**
+     * Write every record of this segment as a CSV line.
+     */
+    public void exportCsv(Writer out) throws IOException {
+        SensorSnapshot s = new SensorSnapshot();
+        StringBuilder line = new StringBuilder(256);
+        int count = getRecordCount();
+        for (int i = 0; i < count; i++) {
+            int sensors = read(i, s);
+            line.setLength(0);
+            line.append(s.getTimestamp()).append(',')
+                    .append(toWallClockMillis(s.getTimestamp())).append(',')
+                    .append(sensors).append(',')
+                    .append(s.getUV()).append(',')
+                    .append(s.getAltitude()).append(',')
+                    .append(s.getPressure()).append(',')
+                    .append(s.getPressureTemperature()).append(',')
+                    .append(s.getHumidity()).append(',')
+                    .append(s.getHumidityTemperature()).append(',')
+                    .append(s.getYaw()).append(',')
+                    .append(s.getPitch()).append(',')
+                    .append(s.getRoll()).append(',')
+                    .append(s.getAx()).append(',')
+                    .append(s.getAy()).append(',')
+                    .append(s.getAz()).append(',')
+                    .append(s.getGx()).append(',')
+                    .append(s.getGy()).append(',')
+                    .append(s.getGz()).append(',')
+                    .append(s.getMx()).append(',')
+                    .append(s.getMy()).append(',')
+                    .append(s.getMz()).append('\n');
+            out.append(line);
+        }
+    }
+
+    /**
+     * Export every segment found in {@code directory}, oldest first, as one CSV table.
+     *
+     * @return number of records exported
+     */
+    public static long exportCsv(File directory, Writer out) throws IOException {
+        out.write(CSV_HEADER);
+        long records = 0;
+        for (File file : listSegments(directory)) {
+            SensorLogReader reader = new SensorLogReader(file);
+            reader.exportCsv(out);
+            records += reader.getRecordCount();
+        }
+        out.flush();
+        return records;
+    }
+
+    /**
+     * Segment files of {@code directory}, oldest first.
+     */
+    public static File[] listSegments(File directory) {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                String name = file.getName();
+                return file.isFile()
+                        && name.startsWith(SensorLogger.SEGMENT_PREFIX)
+                        && name.endsWith(SensorLogger.SEGMENT_SUFFIX)
+                        && name.substring(SensorLogger.SEGMENT_PREFIX.length(),
+                        name.length() - SensorLogger.SEGMENT_SUFFIX.length()).matches("\\d+");
+            }
+        });
+        if (files == null) return new File[0];
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                int ia = SensorLogger.segmentIndex(a);
+                int ib = SensorLogger.segmentIndex(b);
+                return ia < ib ? -1 : (ia == ib ? 0 : 1);
+            }
+        });
+        return files;
+    }
+}
@@ -0,0 +1,203 @@
+package admobilize.matrix.gt.matrix;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * Appends {@link SensorSnapshot}s as fixed size binary records to memory-mapped segment
+ * files, for offline analysis at the full IMU rate.
+ *
+ * Each segment is mapped once at its final size and records are written straight into
+ * the mapping, so appending a sample is a few puts and no allocation; the kernel writes
+ * the pages back. When a segment is full the next one is created and, if more than
+ * {@code maxSegments} exist, the oldest is deleted. The record count in the segment
+ * header is updated after each record, so a segment is readable even if the process dies.
+ *
+ * Segment layout, little-endian:
+ * <pre>
+ * header (HEADER_SIZE bytes): magic, version (short), record size (short),
+ *         wall clock millis and System.nanoTime() at creation (longs),
+ *         record count (int), reserved (int)
+ * record (RECORD_SIZE bytes): System.nanoTime() (long), SENSOR_* flags (int),
+ *         uv, altitude, pressure, pressure temperature, humidity, humidity temperature,
+ *         yaw, pitch, roll, ax, ay, az, gx, gy, gz, mx, my, mz (floats)
+ * </pre>
+ *
+ * Not thread safe: append from a single thread, e.g. the sampling thread of
+ * {@link SensorSampler#setLogger(SensorLogger)}, and close once it stopped.
+ * Use {@link SensorLogReader} to read the segments back.
+ */
+
+public class SensorLogger {
+
+    public static final int SENSOR_UV = 1;
+    public static final int SENSOR_PRESSURE = 1 << 1;
+    public static final int SENSOR_HUMIDITY = 1 << 2;
+    public static final int SENSOR_IMU = 1 << 3;
+    public static final int SENSOR_ALL = SENSOR_UV | SENSOR_PRESSURE | SENSOR_HUMIDITY | SENSOR_IMU;
+
+    static final int MAGIC = 0x4C53584D;  // "MXSL"
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 8 + 4 + 18 * 4;
+    static final int COUNT_OFFSET = 24;
+
+    static final String SEGMENT_PREFIX = "sensors-";
+    static final String SEGMENT_SUFFIX = ".bin";
+
+    private final File directory;
+    private final int segmentRecords;
+    private final int maxSegments;
+    private final ArrayDeque<File> segments = new ArrayDeque<>();
+
+    private MappedByteBuffer segment;
+    private int segmentIndex;
+    private int records;  // records in the current segment
+
+    private long written;
+    private long writeErrors;
+
+    /**
+     * @param segmentRecords records per segment file
+     * @param maxSegments segment files kept in {@code directory}, older ones are deleted
+     */
+    public SensorLogger(File directory, int segmentRecords, int maxSegments) {
+        if (segmentRecords <= 0) throw new IllegalArgumentException("Invalid segment size: " + segmentRecords);
+        if (maxSegments <= 0) throw new IllegalArgumentException("Invalid segment count: " + maxSegments);
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * Start a new segment after the ones already in the directory.
+     */
+    public void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        segments.clear();
+        File[] existing = SensorLogReader.listSegments(directory);
+        for (File file : existing) segments.add(file);
+        segmentIndex = existing.length == 0 ? 0 : segmentIndex(existing[existing.length - 1]) + 1;
+        rotate();
+    }
+
+    /**
+     * Append {@code snapshot} as one record, {@code sensors} tells which SENSOR_* values
+     * were refreshed for this sample.
+     */
+    public boolean append(SensorSnapshot snapshot, int sensors) {
+        if (segment == null) return false;
+        if (records == segmentRecords) {
+            try {
+                rotate();
+            } catch (IOException e) {
+                e.printStackTrace();
+                segment = null;
+                writeErrors++;
+                return false;
+            }
+        }
+        MappedByteBuffer buffer = segment;
+        int position = HEADER_SIZE + records * RECORD_SIZE;
+        buffer.putLong(position, snapshot.getTimestamp());
+        buffer.putInt(position + 8, sensors);
+        position += 12;
+        buffer.putFloat(position, snapshot.getUV());
+        buffer.putFloat(position + 4, snapshot.getAltitude());
+        buffer.putFloat(position + 8, snapshot.getPressure());
+        buffer.putFloat(position + 12, snapshot.getPressureTemperature());
+        buffer.putFloat(position + 16, snapshot.getHumidity());
+        buffer.putFloat(position + 20, snapshot.getHumidityTemperature());
+        buffer.putFloat(position + 24, snapshot.getYaw());
+        buffer.putFloat(position + 28, snapshot.getPitch());
+        buffer.putFloat(position + 32, snapshot.getRoll());
+        buffer.putFloat(position + 36, snapshot.getAx());
+        buffer.putFloat(position + 40, snapshot.getAy());
+        buffer.putFloat(position + 44, snapshot.getAz());
+        buffer.putFloat(position + 48, snapshot.getGx());
+        buffer.putFloat(position + 52, snapshot.getGy());
+        buffer.putFloat(position + 56, snapshot.getGz());
+        buffer.putFloat(position + 60, snapshot.getMx());
+        buffer.putFloat(position + 64, snapshot.getMy());
+        buffer.putFloat(position + 68, snapshot.getMz());
+        // publish the record only once it is complete
+        buffer.putInt(COUNT_OFFSET, ++records);
+        written++;
+        return true;
+    }
+
+    /**
+     * Flush the current segment to storage and stop logging.
+     */
+    public void close() {
+        if (segment == null) return;
+        segment.force();
+        segment = null;
+    }
+
+    private void rotate() throws IOException {
+        if (segment != null) segment.force();
+        File file = new File(directory, String.format(Locale.US, "%s%06d%s",
+                SEGMENT_PREFIX, segmentIndex++, SEGMENT_SUFFIX));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            long size = HEADER_SIZE + (long) segmentRecords * RECORD_SIZE;
+            raf.setLength(size);
+            // the mapping stays valid once the channel is closed
+            segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            raf.close();
+        }
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        segment.putInt(0, MAGIC);
+        segment.putShort(4, VERSION);
+        segment.putShort(6, (short) RECORD_SIZE);
+        segment.putLong(8, System.currentTimeMillis());
+        segment.putLong(16, System.nanoTime());
+        segment.putInt(COUNT_OFFSET, 0);
+        records = 0;
+
+        segments.add(file);
+        while (segments.size() > maxSegments) {
+            File oldest = segments.poll();
+            if (!oldest.delete()) writeErrors++;
+        }
+    }
+
+    static int segmentIndex(File file) {
+        String name = file.getName();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * SENSOR_* flag of {@code sensor}, 0 for sensors not logged.
+     */
+    static int flag(McuSensor sensor) {
+        if (sensor instanceof IMU) return SENSOR_IMU;
+        if (sensor instanceof UV) return SENSOR_UV;
+        if (sensor instanceof Pressure) return SENSOR_PRESSURE;
+        if (sensor instanceof Humidity) return SENSOR_HUMIDITY;
+        return 0;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    public long getWriteErrors() {
+        return writeErrors;
+    }
+}
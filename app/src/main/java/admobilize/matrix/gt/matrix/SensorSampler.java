@@ -0,0 +1,188 @@
+package admobilize.matrix.gt.matrix;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Samples the MCU sensors and publishes the latest {@link SensorSnapshot}. Either the
+ * whole block is read by {@link McuSensors} on an own thread at a fixed rate, or the
+ * sampler follows a {@link SensorScheduler} and refreshes the values of the sensors
+ * each batch served.
+ *
+ * Publication works as a seqlock: the sampling thread is the only writer, and readers
+ * copy the latest snapshot under an optimistic {@link StampedLock} stamp, retrying if a
+ * publication raced with the copy. Readers never block the sampler nor touch the
+ * {@link Wishbone} lock.
+ */
+
+public class SensorSampler implements SensorScheduler.Listener {
+
+    private final McuSensors sensors;
+    private final SensorScheduler scheduler;
+    private final long periodNanos;
+
+    private final SensorSnapshot scratch = new SensorSnapshot();  // owned by the sampling thread
+    private final SensorSnapshot latest = new SensorSnapshot();
+    private final StampedLock seqlock = new StampedLock();
+    private volatile long sequence;  // number of published samples
+    private volatile long firstSampleNanos;
+    private volatile ImuRingBuffer imuHistory;
+    private volatile SensorLogger logger;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    private volatile long readErrors;
+    private volatile long overruns;
+
+    public SensorSampler(McuSensors sensors, int sampleRate) {
+        if (sampleRate <= 0) throw new IllegalArgumentException("Invalid sample rate: " + sampleRate);
+        this.sensors = sensors;
+        this.scheduler = null;
+        this.periodNanos = TimeUnit.SECONDS.toNanos(1) / sampleRate;
+    }
+
+    public SensorSampler(SensorScheduler scheduler) {
+        this.sensors = null;
+        this.scheduler = scheduler;
+        this.periodNanos = 0;
+        scheduler.setListener(this);
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        if (scheduler != null) {
+            scheduler.start();
+            return;
+        }
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sampleLoop();
+            }
+        }, SensorSampler.class.getSimpleName());
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (scheduler != null) scheduler.stop();
+        if (thread == null) return;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    private void sampleLoop() {
+        long deadline = System.nanoTime();
+        while (running) {
+            long now = System.nanoTime();
+            if (now < deadline) {
+                LockSupport.parkNanos(deadline - now);
+                continue;
+            }
+            long late = now - deadline;
+            if (late >= periodNanos) {
+                // skip the lost periods instead of sampling back to back
+                overruns += late / periodNanos;
+                deadline += (late / periodNanos) * periodNanos;
+            }
+            deadline += periodNanos;
+
+            if (sensors.read(scratch)) {
+                publish(scratch);
+                SensorLogger log = logger;
+                if (log != null) log.append(scratch, SensorLogger.SENSOR_ALL);
+            } else {
+                readErrors++;
+            }
+        }
+    }
+
+    /**
+     * Keep every IMU sample served by the scheduler in {@code history}.
+     */
+    public void setImuHistory(ImuRingBuffer history) {
+        this.imuHistory = history;
+    }
+
+    /**
+     * Append every published sample to {@code logger}, on the sampling thread. Set it to
+     * null, or stop the sampler, before closing the logger.
+     */
+    public void setLogger(SensorLogger logger) {
+        this.logger = logger;
+    }
+
+    @Override
+    public void onSamples(McuSensor[] sensors, int count, long timestamp) {
+        ImuRingBuffer history = imuHistory;
+        int refreshed = 0;
+        for (int i = 0; i < count; i++) {
+            sensors[i].store(scratch);
+            refreshed |= SensorLogger.flag(sensors[i]);
+            if (history != null && sensors[i] instanceof IMU) history.add(timestamp, (IMU) sensors[i]);
+        }
+        scratch.setTimestamp(timestamp);
+        publish(scratch);
+        SensorLogger log = logger;
+        if (log != null) log.append(scratch, refreshed);
+    }
+
+    void publish(SensorSnapshot sample) {
+        long stamp = seqlock.writeLock();
+        try {
+            latest.copyFrom(sample);
+            if (sequence == 0) firstSampleNanos = sample.getTimestamp();
+            sequence++;
+        } finally {
+            seqlock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Copy the latest published sample into {@code out}.
+     *
+     * @return sequence number of the copied sample, 0 if nothing was published yet
+     */
+    public long readLatest(SensorSnapshot out) {
+        while (true) {
+            long stamp = seqlock.tryOptimisticRead();
+            if (stamp != 0) {
+                long seq = sequence;
+                out.copyFrom(latest);
+                if (seqlock.validate(stamp)) return seq;
+            }
+            Thread.yield();
+        }
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return capture time (System.nanoTime()) of the first published sample, 0 if none
+     */
+    public long getFirstSampleNanos() {
+        return firstSampleNanos;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public long getReadErrors() {
+        return scheduler != null ? scheduler.getReadErrors() : readErrors;
+    }
+
+    public long getOverruns() {
+        return scheduler != null ? scheduler.getOverruns() : overruns;
+    }
+}
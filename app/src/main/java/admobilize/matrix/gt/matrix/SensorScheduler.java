@@ -0,0 +1,191 @@
+package admobilize.matrix.gt.matrix;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Earliest-deadline sampling of {@link McuSensor}s, each one at its own
+ * {@link McuSensor#getSamplingPeriodNanos() period}.
+ *
+ * Sensors due within {@link #BATCH_WINDOW_NANOS} of each other are served by the same
+ * batch, and registers of a batch lying close in the MCU block are fetched with a
+ * single burst, so a slow sensor riding along with a fast one costs a few bytes
+ * instead of a transaction.
+ */
+
+public class SensorScheduler {
+
+    public interface Listener {
+        /**
+         * Called on the scheduler thread with the sensors refreshed by one batch, sorted by
+         * memory offset. The array is reused, only the first {@code count} entries are valid.
+         */
+        void onSamples(McuSensor[] sensors, int count, long timestamp);
+    }
+
+    public static final long BATCH_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // reading a gap this small is cheaper than one more SPI transaction
+    private static final int MERGE_GAP_BYTES = 16;
+
+    private final Wishbone wb;
+    private final McuSensor[] sensors;  // sorted by memory offset
+    private final long[] deadlines;
+    private final McuSensor[] due;
+    private final McuSensor[] updated;
+    private final byte[] block;  // indexed by memory offset
+    private final Wishbone.Batch batch;
+    private final int[] groupEnd;
+
+    private volatile Listener listener;
+    private volatile boolean running;
+    private Thread thread;
+
+    private volatile long batches;
+    private volatile long bursts;
+    private volatile long readErrors;
+    private volatile long overruns;
+
+    public SensorScheduler(Wishbone wb, McuSensor... sensors) {
+        this.wb = wb.tagged(SensorScheduler.class.getSimpleName());
+        this.sensors = sensors.clone();
+        Arrays.sort(this.sensors, new Comparator<McuSensor>() {
+            @Override
+            public int compare(McuSensor a, McuSensor b) {
+                return a.getMemoryOffset() - b.getMemoryOffset();
+            }
+        });
+        this.deadlines = new long[sensors.length];
+        this.due = new McuSensor[sensors.length];
+        this.updated = new McuSensor[sensors.length];
+        int end = 0;
+        for (McuSensor sensor : sensors) {
+            end = Math.max(end, sensor.getMemoryOffset() + sensor.getDataLength());
+        }
+        this.block = new byte[end];
+        this.batch = this.wb.batch();
+        this.groupEnd = new int[sensors.length];
+        reset(System.nanoTime());
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Make every sensor due at {@code now}.
+     */
+    public void reset(long now) {
+        Arrays.fill(deadlines, now);
+    }
+
+    /**
+     * Sample every sensor due at {@code now}.
+     *
+     * @return the next deadline
+     */
+    public long poll(long now) {
+        int count = 0;
+        long next = Long.MAX_VALUE;
+        for (int i = 0; i < sensors.length; i++) {
+            if (deadlines[i] - now <= BATCH_WINDOW_NANOS) {
+                due[count++] = sensors[i];
+                long period = sensors[i].getSamplingPeriodNanos();
+                deadlines[i] += period;
+                if (deadlines[i] - now <= 0) {
+                    // fell behind, restart the cadence from now
+                    overruns++;
+                    deadlines[i] = now + period;
+                }
+            }
+            next = Math.min(next, deadlines[i]);
+        }
+        if (count > 0) readBatch(count);
+        return next;
+    }
+
+    private void readBatch(int count) {
+        // the bursts of a batch share one bus lock acquisition
+        batch.clear();
+        int groups = 0;
+        int i = 0;
+        while (i < count) {
+            McuSensor first = due[i];
+            int start = first.getMemoryOffset();
+            int end = start + first.getDataLength();
+            int j = i + 1;
+            while (j < count && due[j].getMemoryOffset() - end <= MERGE_GAP_BYTES) {
+                end = Math.max(end, due[j].getMemoryOffset() + due[j].getDataLength());
+                j++;
+            }
+            // only whole 16 bit words are read, as the MCU block is word addressed
+            batch.read((short) (first.kMCUBaseAddress + (start >> 1)), block, start, (end - start) & ~1);
+            groupEnd[groups++] = j;
+            i = j;
+        }
+        bursts += groups;
+        if (!batch.execute()) readErrors += groups - batch.getCompleted();
+
+        int done = 0;
+        i = 0;
+        for (int g = 0; g < batch.getCompleted(); g++) {
+            for (; i < groupEnd[g]; i++) {
+                due[i].decode(block, due[i].getMemoryOffset());
+                updated[done++] = due[i];
+            }
+        }
+        batches++;
+        Listener current = listener;
+        if (current != null && done > 0) current.onSamples(updated, done, System.nanoTime());
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                reset(System.nanoTime());
+                while (running) {
+                    long next = poll(System.nanoTime());
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) LockSupport.parkNanos(wait);
+                }
+            }
+        }, SensorScheduler.class.getSimpleName());
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread == null) return;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    public long getBursts() {
+        return bursts;
+    }
+
+    public long getReadErrors() {
+        return readErrors;
+    }
+
+    public long getOverruns() {
+        return overruns;
+    }
+}
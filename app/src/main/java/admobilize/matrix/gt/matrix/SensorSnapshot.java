@@ -0,0 +1,206 @@
+package admobilize.matrix.gt.matrix;
+
+/**
+ * Values of every MCU sensor captured by one {@link McuSensors#read(SensorSnapshot)}, so
+ * all readings belong to the same instant. Instances are meant to be reused between polls.
+ */
+
+public class SensorSnapshot {
+
+    private long timestamp;  // System.nanoTime() at capture
+
+    private float uv;
+
+    private float altitude;
+    private float pressure;
+    private float pressureTemperature;
+
+    private float humidity;
+    private float humidityTemperature;
+
+    private float yaw;
+    private float pitch;
+    private float roll;
+
+    private float ax;  // acceleration
+    private float ay;
+    private float az;
+
+    private float gx;  // gyroscope
+    private float gy;
+    private float gz;
+
+    private float mx; // magnetometer
+    private float my;
+    private float mz;
+
+    /**
+     * Fill the snapshot from the raw MCU block, {@code data} starts at kMCUBaseAddress.
+     */
+    void decode(SensorBase map, byte[] data, long timestamp) {
+        this.timestamp = timestamp;
+        this.uv = SensorBase.readFloat(data, map.kMemoryOffsetUV);
+
+        this.altitude = SensorBase.readFloat(data, map.kMemoryOffsetPressure);
+        this.pressure = SensorBase.readFloat(data, map.kMemoryOffsetPressure + 4);
+        this.pressureTemperature = SensorBase.readFloat(data, map.kMemoryOffsetPressure + 8);
+
+        this.humidity = SensorBase.readFloat(data, map.kMemoryOffsetHumidity);
+        this.humidityTemperature = SensorBase.readFloat(data, map.kMemoryOffsetHumidity + 4);
+
+        int imu = map.kMemoryOffsetIMU;
+        this.yaw = SensorBase.readFloat(data, imu);
+        this.pitch = SensorBase.readFloat(data, imu + 4);
+        this.roll = SensorBase.readFloat(data, imu + 8);
+        this.ax = SensorBase.readFloat(data, imu + 12);
+        this.ay = SensorBase.readFloat(data, imu + 16);
+        this.az = SensorBase.readFloat(data, imu + 20);
+        this.gx = SensorBase.readFloat(data, imu + 24);
+        this.gy = SensorBase.readFloat(data, imu + 28);
+        this.gz = SensorBase.readFloat(data, imu + 32);
+        this.mx = SensorBase.readFloat(data, imu + 36);
+        this.my = SensorBase.readFloat(data, imu + 40);
+        this.mz = SensorBase.readFloat(data, imu + 44);
+    }
+
+    void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    void setUV(float uv) {
+        this.uv = uv;
+    }
+
+    void setPressure(float altitude, float pressure, float temperature) {
+        this.altitude = altitude;
+        this.pressure = pressure;
+        this.pressureTemperature = temperature;
+    }
+
+    void setHumidity(float humidity, float temperature) {
+        this.humidity = humidity;
+        this.humidityTemperature = temperature;
+    }
+
+    void setOrientation(float yaw, float pitch, float roll) {
+        this.yaw = yaw;
+        this.pitch = pitch;
+        this.roll = roll;
+    }
+
+    void setAcceleration(float ax, float ay, float az) {
+        this.ax = ax;
+        this.ay = ay;
+        this.az = az;
+    }
+
+    void setGyroscope(float gx, float gy, float gz) {
+        this.gx = gx;
+        this.gy = gy;
+        this.gz = gz;
+    }
+
+    void setMagnetometer(float mx, float my, float mz) {
+        this.mx = mx;
+        this.my = my;
+        this.mz = mz;
+    }
+
+    public void copyFrom(SensorSnapshot other) {
+        this.timestamp = other.timestamp;
+        this.uv = other.uv;
+        this.altitude = other.altitude;
+        this.pressure = other.pressure;
+        this.pressureTemperature = other.pressureTemperature;
+        this.humidity = other.humidity;
+        this.humidityTemperature = other.humidityTemperature;
+        this.yaw = other.yaw;
+        this.pitch = other.pitch;
+        this.roll = other.roll;
+        this.ax = other.ax;
+        this.ay = other.ay;
+        this.az = other.az;
+        this.gx = other.gx;
+        this.gy = other.gy;
+        this.gz = other.gz;
+        this.mx = other.mx;
+        this.my = other.my;
+        this.mz = other.mz;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public float getUV() {
+        return uv;
+    }
+
+    public float getAltitude() {
+        return altitude;
+    }
+
+    public float getPressure() {
+        return pressure;
+    }
+
+    public float getPressureTemperature() {
+        return pressureTemperature;
+    }
+
+    public float getHumidity() {
+        return humidity;
+    }
+
+    public float getHumidityTemperature() {
+        return humidityTemperature;
+    }
+
+    public float getYaw() {
+        return yaw;
+    }
+
+    public float getPitch() {
+        return pitch;
+    }
+
+    public float getRoll() {
+        return roll;
+    }
+
+    public float getAx() {
+        return ax;
+    }
+
+    public float getAy() {
+        return ay;
+    }
+
+    public float getAz() {
+        return az;
+    }
+
+    public float getGx() {
+        return gx;
+    }
+
+    public float getGy() {
+        return gy;
+    }
+
+    public float getGz() {
+        return gz;
+    }
+
+    public float getMx() {
+        return mx;
+    }
+
+    public float getMy() {
+        return my;
+    }
+
+    public float getMz() {
+        return mz;
+    }
+}
@@ -0,0 +1,27 @@
+package admobilize.matrix.gt.matrix;
+
+import com.google.android.things.pio.SpiDevice;
+
+import java.io.IOException;
+
+/**
+ * {@link SpiTransport} on top of the Android Things PIO SPI device
+ */
+
+public class SpiDeviceTransport implements SpiTransport {
+
+    private final SpiDevice spiDevice;
+
+    public SpiDeviceTransport(SpiDevice spiDevice) {
+        this.spiDevice = spiDevice;
+    }
+
+    @Override
+    public void transfer(byte[] tx_buffer, byte[] rx_buffer, int length) throws IOException {
+        spiDevice.transfer(tx_buffer, rx_buffer, length);
+    }
+
+    public SpiDevice getSpiDevice() {
+        return spiDevice;
+    }
+}
@@ -0,0 +1,19 @@
+package admobilize.matrix.gt.matrix;
+
+import java.io.IOException;
+
+/**
+ * Full-duplex SPI link used by {@link Wishbone}. The physical bus is wrapped by
+ * {@link SpiDeviceTransport}, while the {@code FakeSpiTransport} of the unit tests keeps
+ * the Wishbone address space in memory so bus usage can be checked off the board.
+ */
+
+public interface SpiTransport {
+
+    /**
+     * Clock out {@code length} bytes of {@code tx_buffer} while the same amount of
+     * bytes is clocked into {@code rx_buffer}.
+     */
+    void transfer(byte[] tx_buffer, byte[] rx_buffer, int length) throws IOException;
+
+}
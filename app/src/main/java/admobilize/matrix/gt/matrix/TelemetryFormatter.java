@@ -0,0 +1,152 @@
+package admobilize.matrix.gt.matrix;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formats sensor values as a "LABEL: value" tab separated debug line into a reused
+ * {@link StringBuilder}, at most once per interval.
+ *
+ * Callers ask {@link #tryEmit(long)} before formatting, so a disabled or rate limited
+ * formatter costs a volatile read per poll. Numbers are written with fixed decimals
+ * straight into the builder; the only allocation is the String handed to the logger
+ * when a line is actually emitted. Formatting is meant for one thread, the enable switch
+ * and the interval may be changed from anywhere at runtime.
+ */
+
+public class TelemetryFormatter {
+
+    private static final int LINE_CAPACITY = 256;
+    private static final long[] POW10 = {1, 10, 100, 1000, 10000, 100000, 1000000};
+
+    private final StringBuilder line = new StringBuilder(LINE_CAPACITY);
+    private int decimals = 2;
+
+    private volatile boolean enabled;
+    private volatile long intervalNanos;
+    private long lastEmit;
+    private boolean emittedOnce;
+
+    private long emitted;
+    private long suppressed;
+
+    public TelemetryFormatter(boolean enabled, long interval, TimeUnit unit) {
+        this.enabled = enabled;
+        setInterval(interval, unit);
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setInterval(long interval, TimeUnit unit) {
+        if (interval < 0) throw new IllegalArgumentException("Invalid interval: " + interval);
+        this.intervalNanos = unit.toNanos(interval);
+    }
+
+    public void setDecimals(int decimals) {
+        if (decimals < 0 || decimals >= POW10.length) {
+            throw new IllegalArgumentException("Invalid decimals: " + decimals);
+        }
+        this.decimals = decimals;
+    }
+
+    /**
+     * @return true if a line should be formatted and emitted at {@code now}
+     * (System.nanoTime()), which then counts as the last emission
+     */
+    public boolean tryEmit(long now) {
+        if (!enabled) return false;
+        if (emittedOnce && now - lastEmit < intervalNanos) {
+            suppressed++;
+            return false;
+        }
+        emittedOnce = true;
+        lastEmit = now;
+        emitted++;
+        return true;
+    }
+
+    /**
+     * Start a new line.
+     */
+    public TelemetryFormatter begin() {
+        line.setLength(0);
+        return this;
+    }
+
+    public TelemetryFormatter field(String label, float value) {
+        separator(label);
+        appendFixed(line, value, decimals);
+        return this;
+    }
+
+    public TelemetryFormatter field(String label, long value) {
+        separator(label);
+        line.append(value);
+        return this;
+    }
+
+    /**
+     * Append the environment and orientation values of {@code s}.
+     */
+    public TelemetryFormatter snapshot(SensorSnapshot s) {
+        return field("UV", s.getUV())
+                .field("AL", s.getAltitude())
+                .field("PR", s.getPressure())
+                .field("TP", s.getPressureTemperature())
+                .field("HM", s.getHumidity())
+                .field("TP", s.getHumidityTemperature())
+                .field("YW", s.getYaw())
+                .field("PT", s.getPitch())
+                .field("RL", s.getRoll());
+    }
+
+    private void separator(String label) {
+        if (line.length() > 0) line.append('\t');
+        line.append(label).append(": ");
+    }
+
+    /**
+     * The line formatted so far, valid until the next {@link #begin()}.
+     */
+    public CharSequence getLine() {
+        return line;
+    }
+
+    public long getEmitted() {
+        return emitted;
+    }
+
+    public long getSuppressed() {
+        return suppressed;
+    }
+
+    @Override
+    public String toString() {
+        return line.toString();
+    }
+
+    /**
+     * Append {@code value} rounded to {@code decimals} digits without going through
+     * Float.toString.
+     */
+    static StringBuilder appendFixed(StringBuilder sb, float value, int decimals) {
+        if (Float.isNaN(value)) return sb.append("NaN");
+        if (Float.isInfinite(value)) return sb.append(value > 0 ? "Infinity" : "-Infinity");
+        long scale = POW10[decimals];
+        double magnitude = Math.abs((double) value) * scale;
+        if (magnitude >= Long.MAX_VALUE) return sb.append(value);
+        long scaled = Math.round(magnitude);
+        if (value < 0 && scaled != 0) sb.append('-');
+        sb.append(scaled / scale);
+        if (decimals == 0) return sb;
+        sb.append('.');
+        long fraction = scaled % scale;
+        for (long digit = scale / 10; digit > 1 && fraction < digit; digit /= 10) sb.append('0');
+        return sb.append(fraction);
+    }
+}
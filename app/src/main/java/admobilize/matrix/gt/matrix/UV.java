@@ -1,22 +1,44 @@
 package admobilize.matrix.gt.matrix;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-
 /**
  * Created by Antonio Vanegas @hpsaturn on 12/20/16.
  */
 
-public class UV extends SensorBase {
+public class UV extends McuSensor {
+
+    private static final long SAMPLING_PERIOD_MS = 1000;
+
+    private float uv;
+
+    private final byte[] data = new byte[4];
 
     public UV(Wishbone wb) {
-        super(wb);
+        super(wb, SAMPLING_PERIOD_MS);
+    }
+
+    @Override
+    public int getMemoryOffset() {
+        return kMemoryOffsetUV;
+    }
+
+    @Override
+    public int getDataLength() {
+        return data.length;
     }
 
     public float read (){
-        byte[] data = new byte[8];
-        wb.SpiRead((short) (kMCUBaseAddress+(kMemoryOffsetUV >> 1)),data,4);
-        return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).getFloat();
+        update(data);
+        return uv;
+    }
+
+    @Override
+    void decode(byte[] data, int offset) {
+        this.uv = readFloat(data, offset);
+    }
+
+    @Override
+    void store(SensorSnapshot snapshot) {
+        snapshot.setUV(uv);
     }
 
 }
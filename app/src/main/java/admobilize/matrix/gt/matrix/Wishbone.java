@@ -3,6 +3,8 @@ package admobilize.matrix.gt.matrix;
 import com.google.android.things.pio.SpiDevice;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -19,117 +21,466 @@ public class Wishbone {
     private static final String TAG = Wishbone.class.getSimpleName();
     private static final boolean DEBUG = Config.DEBUG;
 
-    private byte[] tx_buffer_ = new byte[4096];
-    private byte[] rx_buffer_ = new byte[16];
+    private static final int BUFFER_SIZE = 4096;
+    // Wishbone header (RD0/RD1 or WR0/WR1) precedes the payload on every transfer
+    private static final int HEADER_SIZE = 2;
+    public static final int MAX_BURST_LENGTH = BUFFER_SIZE - HEADER_SIZE;
 
+    private static final String DEFAULT_TAG = "default";
 
-    private final Lock _mutex = new ReentrantLock(true);
-    private SpiDevice spiDevice;
+    // tx/rx frames are built and unpacked by each caller thread outside of the bus lock,
+    // only the physical transfer is serialized
+    private final ThreadLocal<Frame> frames;
+
+    private final Lock _mutex;
+    private final SpiTransport transport;
+    private final WishboneMetrics metrics;
+    private final WishboneMetrics.Stats stats;
 
     public Wishbone(SpiDevice spiDevice) {
-        this.spiDevice = spiDevice;
+        this(new SpiDeviceTransport(spiDevice));
     }
 
-    // Full-duplex data transfer
-    public void spiTransfer(SpiDevice device, byte[] tx_buffer) throws IOException {
-        byte[] response = new byte[tx_buffer.length];
-        device.transfer(tx_buffer, response, tx_buffer.length);
+    public Wishbone(SpiTransport transport) {
+        this.frames = new ThreadLocal<Frame>() {
+            @Override
+            protected Frame initialValue() {
+                return new Frame();
+            }
+        };
+        this._mutex = new ReentrantLock(true);
+        this.transport = transport;
+        this.metrics = new WishboneMetrics();
+        this.stats = metrics.forTag(DEFAULT_TAG);
     }
 
-    public void spiTransfer(SpiDevice device, byte[] tx_buffer, byte[] rx_buffer, int lenght) throws IOException {
-        device.transfer(tx_buffer, rx_buffer, lenght);
+    private Wishbone(Wishbone bus, String tag) {
+        this.frames = bus.frames;
+        this._mutex = bus._mutex;
+        this.transport = bus.transport;
+        this.metrics = bus.metrics;
+        this.stats = metrics.forTag(tag);
     }
 
-    public Boolean SpiWrite16(short add, byte[] data) {
+    /**
+     * View of the same bus whose transfers are accounted under {@code tag} in the metrics.
+     */
+    public Wishbone tagged(String tag) {
+        return new Wishbone(this, tag);
+    }
+
+    /**
+     * Copy of the bus metrics of every tag, taken under the bus lock.
+     */
+    public Map<String, WishboneMetrics.Stats> getMetrics() {
         _mutex.lock();
         try {
-            tx_buffer_[0] = WR0(add);
-            tx_buffer_[1] = WR1(add, (byte) 0);
-            tx_buffer_[2] = data[0];
-            tx_buffer_[3] = data[1];
-            spiTransfer(spiDevice,tx_buffer_);
-            return true;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
+            return metrics.snapshot();
+        } finally {
+            _mutex.unlock();
+        }
+    }
+
+    public void resetMetrics() {
+        _mutex.lock();
+        try {
+            metrics.reset();
         } finally {
             _mutex.unlock();
         }
     }
 
+    /**
+     * New empty {@link Batch} on this bus, accounted under the tag of this view.
+     */
+    public Batch batch() {
+        return new Batch(this);
+    }
+
+    public Boolean SpiWrite16(short add, byte[] data) {
+        return SpiWrite(add, data, (short) 0, WishboneMetrics.OP_WRITE16);
+    }
+
     public Boolean SpiWrite(short add, byte [] data, short inc) {
+        return SpiWrite(add, data, inc, WishboneMetrics.OP_WRITE);
+    }
+
+    private Boolean SpiWrite(short add, byte [] data, short inc, int op) {
+        Frame frame = frames.get();
+        frame.tx_buffer_[0] = WR0(add);
+        frame.tx_buffer_[1] = WR1(add, inc);
+        System.arraycopy(data, 0, frame.tx_buffer_, HEADER_SIZE, 2);
+//      memcpy(&tx_buffer_[2], data, 2);
+        return transfer(op, frame, HEADER_SIZE + 2);
+    }
+
+    /**
+     * Auto-increment write of {@code length} bytes starting at the word address {@code add}.
+     * Blocks up to {@link #MAX_BURST_LENGTH} bytes go out in a single SPI transaction,
+     * bigger ones are split in consecutive bursts.
+     */
+    public Boolean SpiWriteBurst(short add, byte [] data, int length) {
+        return SpiWriteBurst(add, data, 0, length);
+    }
+
+    public Boolean SpiWriteBurst(short add, byte [] data, int data_offset, int length) {
+        Frame frame = frames.get();
+        if (length <= MAX_BURST_LENGTH) {
+            frame.tx_buffer_[0] = WR0(add);
+            frame.tx_buffer_[1] = WR1(add, (short) 1);
+            System.arraycopy(data, data_offset, frame.tx_buffer_, HEADER_SIZE, length);
+            return transfer(WishboneMetrics.OP_WRITE_BURST, frame, length + HEADER_SIZE);
+        }
+        // keep the bus for the whole block, the lock is reentrant
         _mutex.lock();
         try {
-            tx_buffer_[0] = WR0(add);
-            tx_buffer_[1] = WR1(add, inc);
-            System.arraycopy(data,0,tx_buffer_,2,2);
-//          memcpy(&tx_buffer_[2], data, 2);
-            spiTransfer(spiDevice,tx_buffer_,rx_buffer_,4);
+            for (int offset = 0; offset < length; offset += MAX_BURST_LENGTH) {
+                int chunk = Math.min(length - offset, MAX_BURST_LENGTH);
+                if (!SpiWriteBurst((short) (add + (offset >> 1)), data, data_offset + offset, chunk)) {
+                    return false;
+                }
+            }
             return true;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
         } finally {
             _mutex.unlock();
         }
     }
 
+    /**
+     * Auto-increment read of {@code length} bytes starting at the word address {@code add}.
+     * Blocks up to {@link #MAX_BURST_LENGTH} bytes go out in a single SPI transaction,
+     * bigger ones are split in consecutive bursts.
+     */
     public Boolean SpiReadBurst(short add, byte [] data, int length) {
+        return SpiReadBurst(add, data, 0, length);
+    }
+
+    public Boolean SpiReadBurst(short add, byte [] data, int data_offset, int length) {
+        Frame frame = frames.get();
+        if (length <= MAX_BURST_LENGTH) {
+            frame.tx_buffer_[0] = RD0(add);
+            frame.tx_buffer_[1] = RD1(add, (short) 1);
+            if (!transfer(WishboneMetrics.OP_READ_BURST, frame, length + HEADER_SIZE)) return false;
+            System.arraycopy(frame.rx_buffer_, HEADER_SIZE, data, data_offset, length);
+//          memcpy(data, &rx_buffer_[2], length);
+            return true;
+        }
+        // keep the bus for the whole block, the lock is reentrant
         _mutex.lock();
         try {
-            tx_buffer_[0] = RD0(add);
-            tx_buffer_[1] = RD1(add, (short) 1);
-            spiTransfer(spiDevice, tx_buffer_,rx_buffer_,length+2);
-            System.arraycopy(rx_buffer_,2,data,0,length);
-//          memcpy(data, &rx_buffer_[2], length);
+            for (int offset = 0; offset < length; offset += MAX_BURST_LENGTH) {
+                int chunk = Math.min(length - offset, MAX_BURST_LENGTH);
+                if (!SpiReadBurst((short) (add + (offset >> 1)), data, data_offset + offset, chunk)) {
+                    return false;
+                }
+            }
             return true;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
         } finally {
             _mutex.unlock();
         }
     }
 
     public Boolean SpiRead(short add, byte[] data, int length) {
-        for (short w = 0; w < (length / 2); w++) {
-//            if(DEBUG) Log.d(TAG,"spiRead word:"+w);
-            if (!SpiRead16((short)(add + w),data, w)) return false;
-        }
-        return true;
+        // only whole 16 bit words are read, as the MCU block is word addressed
+        return SpiReadBurst(add, data, length & ~1);
     }
 
     public Boolean SpiRead16(short add, byte[] data, int inc) {
+        Frame frame = frames.get();
+        int length = 2;
+        frame.tx_buffer_[0] = RD0(add);
+        frame.tx_buffer_[1] = RD1(add, (short) 0);
+        if (!transfer(WishboneMetrics.OP_READ16, frame, length + HEADER_SIZE)) return false;
+        System.arraycopy(frame.rx_buffer_, HEADER_SIZE, data, inc * 2, length);
+//      memcpy(data, &rx_buffer_[2], length);
+        return true;
+    }
+
+    /**
+     * The only part of a request done under the bus lock.
+     */
+    private boolean transfer(int op, Frame frame, int length) {
+        long start = System.nanoTime();
         _mutex.lock();
+        long locked = System.nanoTime();
+        boolean success = false;
         try {
-            int length = 2;
-            tx_buffer_[0] = RD0(add);
-            tx_buffer_[1] = RD1(add, (short) 0);
-            spiTransfer(spiDevice,tx_buffer_,rx_buffer_,length+2);
-            System.arraycopy(rx_buffer_,2,data,inc*2,length);
-//            if(DEBUG) Log.d(TAG,"spiTransfer transmit:"+ Arrays.toString(tx_buffer_));
-//            if(DEBUG) Log.d(TAG,"spiTransfer response:"+ Arrays.toString(rx_buffer_));
-//            memcpy(data, &rx_buffer_[2], length);
-            return true;
+            transport.transfer(frame.tx_buffer_, frame.rx_buffer_, length);
+            success = true;
         } catch (IOException e) {
             e.printStackTrace();
-            return false;
         } finally {
+            stats.record(op, length, success, locked - start, System.nanoTime() - locked);
             _mutex.unlock();
         }
+        return success;
+    }
+
+    /**
+     * Sequence of auto-increment reads and writes executed under a single acquisition of
+     * the bus lock, so no other thread gets on the bus in between and a tick pays one
+     * lock handoff instead of one per request. Consecutive requests of the same kind on
+     * contiguous addresses are merged in one SPI transaction.
+     * <p>
+     * Writes take the caller data when the batch is executed, reads land in the caller
+     * buffers once it succeeded. A batch keeps its requests after {@link #execute()}, so
+     * one built once can be executed every tick without allocating; {@link #clear()} it
+     * to queue different requests. Not thread safe, a batch belongs to one caller.
+     */
+    public static class Batch {
+
+        private static final int INITIAL_CAPACITY = 8;
+
+        private final Wishbone bus;
+
+        // requests, in the order they were queued
+        private int requests;
+        private boolean[] read = new boolean[INITIAL_CAPACITY];
+        private short[] address = new short[INITIAL_CAPACITY];
+        private byte[][] data = new byte[INITIAL_CAPACITY][];
+        private int[] dataOffset = new int[INITIAL_CAPACITY];
+        private int[] length = new int[INITIAL_CAPACITY];
+
+        // plan: requests cut in segments of at most one burst, segments merged in transfers
+        private boolean planned;
+        private int segments;
+        private int[] segmentRequest = new int[INITIAL_CAPACITY];
+        private int[] segmentOffset = new int[INITIAL_CAPACITY];
+        private int[] segmentLength = new int[INITIAL_CAPACITY];
+        private int[] segmentTransfer = new int[INITIAL_CAPACITY];
+        private int[] segmentPosition = new int[INITIAL_CAPACITY];
+        private int transfers;
+        private int[] transferLength = new int[INITIAL_CAPACITY];
+        private int[] transferFirstSegment = new int[INITIAL_CAPACITY];
+        // frames are kept across executions and only grow
+        private byte[][] tx = new byte[INITIAL_CAPACITY][];
+        private byte[][] rx = new byte[INITIAL_CAPACITY][];
+
+        private int completed;
+
+        private Batch(Wishbone bus) {
+            this.bus = bus;
+        }
+
+        /**
+         * Queue an auto-increment read of {@code length} bytes from the word address
+         * {@code add} into {@code data} at {@code data_offset}.
+         */
+        public Batch read(short add, byte[] data, int data_offset, int length) {
+            return add(true, add, data, data_offset, length);
+        }
+
+        /**
+         * Queue an auto-increment write of {@code length} bytes of {@code data} from
+         * {@code data_offset} to the word address {@code add}.
+         */
+        public Batch write(short add, byte[] data, int data_offset, int length) {
+            return add(false, add, data, data_offset, length);
+        }
+
+        private Batch add(boolean isRead, short add, byte[] buffer, int offset, int count) {
+            if (offset < 0 || count <= 0 || offset + count > buffer.length) {
+                throw new IllegalArgumentException("Invalid range: " + offset + "+" + count);
+            }
+            if (requests == read.length) {
+                int capacity = requests * 2;
+                read = Arrays.copyOf(read, capacity);
+                address = Arrays.copyOf(address, capacity);
+                data = Arrays.copyOf(data, capacity);
+                dataOffset = Arrays.copyOf(dataOffset, capacity);
+                length = Arrays.copyOf(length, capacity);
+            }
+            read[requests] = isRead;
+            address[requests] = add;
+            data[requests] = buffer;
+            dataOffset[requests] = offset;
+            length[requests] = count;
+            requests++;
+            planned = false;
+            return this;
+        }
+
+        /**
+         * Drop the queued requests, the frames are kept for the next ones.
+         */
+        public Batch clear() {
+            for (int i = 0; i < requests; i++) data[i] = null;
+            requests = 0;
+            completed = 0;
+            planned = false;
+            return this;
+        }
+
+        public int size() {
+            return requests;
+        }
+
+        /**
+         * SPI transactions the queued requests take once merged.
+         */
+        public int getTransfers() {
+            plan();
+            return transfers;
+        }
+
+        /**
+         * Requests fully transferred by the last {@link #execute()}, the first ones of
+         * the batch; all of them when it succeeded.
+         */
+        public int getCompleted() {
+            return completed;
+        }
+
+        /**
+         * Run every queued request, in order, holding the bus lock once. Stops at the
+         * first failed transaction.
+         */
+        public boolean execute() {
+            completed = 0;
+            if (requests == 0) return true;
+            plan();
+            for (int s = 0; s < segments; s++) {
+                int r = segmentRequest[s];
+                if (!read[r]) {
+                    System.arraycopy(data[r], dataOffset[r] + segmentOffset[s],
+                            tx[segmentTransfer[s]], HEADER_SIZE + segmentPosition[s], segmentLength[s]);
+                }
+            }
+
+            int done = 0;
+            long start = System.nanoTime();
+            bus._mutex.lock();
+            long locked = System.nanoTime();
+            long wait = locked - start;
+            try {
+                for (; done < transfers; done++) {
+                    int op = read[segmentRequest[transferFirstSegment[done]]]
+                            ? WishboneMetrics.OP_READ_BURST : WishboneMetrics.OP_WRITE_BURST;
+                    int frameLength = transferLength[done] + HEADER_SIZE;
+                    boolean success = false;
+                    try {
+                        bus.transport.transfer(tx[done], rx[done], frameLength);
+                        success = true;
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } finally {
+                        long now = System.nanoTime();
+                        // the lock wait is paid by the first transaction only
+                        bus.stats.record(op, frameLength, success, wait, now - locked);
+                        wait = 0;
+                        locked = now;
+                    }
+                    if (!success) break;
+                }
+            } finally {
+                bus._mutex.unlock();
+            }
+
+            for (int s = 0; s < segments; s++) {
+                int r = segmentRequest[s];
+                if (segmentTransfer[s] >= done) {
+                    completed = r;
+                    return false;
+                }
+                if (read[r]) {
+                    System.arraycopy(rx[segmentTransfer[s]], HEADER_SIZE + segmentPosition[s],
+                            data[r], dataOffset[r] + segmentOffset[s], segmentLength[s]);
+                }
+            }
+            completed = requests;
+            return true;
+        }
+
+        private void plan() {
+            if (planned) return;
+            segments = 0;
+            transfers = 0;
+            for (int r = 0; r < requests; r++) {
+                for (int offset = 0; offset < length[r]; offset += MAX_BURST_LENGTH) {
+                    int chunk = Math.min(length[r] - offset, MAX_BURST_LENGTH);
+                    short add = (short) (address[r] + (offset >> 1));
+                    int t = transfers - 1;
+                    int s = segments - 1;
+                    boolean merge = t >= 0
+                            && read[segmentRequest[s]] == read[r]
+                            && segmentLength[s] % 2 == 0
+                            && add == (short) (segmentAddress(s) + segmentLength[s] / 2)
+                            && transferLength[t] + chunk <= MAX_BURST_LENGTH;
+                    if (!merge) {
+                        t = transfers++;
+                        ensureTransfers(transfers);
+                        transferLength[t] = 0;
+                        transferFirstSegment[t] = segments;
+                    }
+                    s = segments++;
+                    ensureSegments(segments);
+                    segmentRequest[s] = r;
+                    segmentOffset[s] = offset;
+                    segmentLength[s] = chunk;
+                    segmentTransfer[s] = t;
+                    segmentPosition[s] = transferLength[t];
+                    transferLength[t] += chunk;
+                }
+            }
+            for (int t = 0; t < transfers; t++) {
+                int size = transferLength[t] + HEADER_SIZE;
+                if (tx[t] == null || tx[t].length < size) {
+                    tx[t] = new byte[size];
+                    rx[t] = new byte[size];
+                }
+                int s = transferFirstSegment[t];
+                short add = segmentAddress(s);
+                if (read[segmentRequest[s]]) {
+                    tx[t][0] = RD0(add);
+                    tx[t][1] = RD1(add, (short) 1);
+                } else {
+                    tx[t][0] = WR0(add);
+                    tx[t][1] = WR1(add, (short) 1);
+                }
+            }
+            planned = true;
+        }
+
+        private short segmentAddress(int s) {
+            return (short) (address[segmentRequest[s]] + (segmentOffset[s] >> 1));
+        }
+
+        private void ensureSegments(int count) {
+            if (count <= segmentRequest.length) return;
+            int capacity = segmentRequest.length * 2;
+            segmentRequest = Arrays.copyOf(segmentRequest, capacity);
+            segmentOffset = Arrays.copyOf(segmentOffset, capacity);
+            segmentLength = Arrays.copyOf(segmentLength, capacity);
+            segmentTransfer = Arrays.copyOf(segmentTransfer, capacity);
+            segmentPosition = Arrays.copyOf(segmentPosition, capacity);
+        }
+
+        private void ensureTransfers(int count) {
+            if (count <= transferLength.length) return;
+            int capacity = transferLength.length * 2;
+            transferLength = Arrays.copyOf(transferLength, capacity);
+            transferFirstSegment = Arrays.copyOf(transferFirstSegment, capacity);
+            tx = Arrays.copyOf(tx, capacity);
+            rx = Arrays.copyOf(rx, capacity);
+        }
     }
 
-    private byte WR0 (short a){
+    static byte WR0 (short a){
         return (byte) ((a >> 6) & 0x0FF);
     }
-    private byte WR1 (short a, short i){
+    static byte WR1 (short a, short i){
         return (byte) (((a << 2) & 0xFC) | (i << 1));
     }
-    private byte RD0(short a) {
+    static byte RD0(short a) {
         return (byte) ((a >> 6) & 0x0FF);
     }
-    private byte RD1(short a, short i){
+    static byte RD1(short a, short i){
         return (byte) (((a << 2) & 0xFC) | 0x01 | (i << 1));
     }
 
+    private static class Frame {
+        final byte[] tx_buffer_ = new byte[BUFFER_SIZE];
+        final byte[] rx_buffer_ = new byte[BUFFER_SIZE];
+    }
+
 }
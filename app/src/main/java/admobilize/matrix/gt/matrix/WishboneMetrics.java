@@ -0,0 +1,157 @@
+package admobilize.matrix.gt.matrix;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bus usage recorded by {@link Wishbone}, split by caller tag (see
+ * {@link Wishbone#tagged(String)}) and operation: transfers, bytes on the wire (header
+ * included), errors, time spent waiting for the bus lock versus time spent transferring,
+ * and a latency histogram.
+ * Recording happens under the bus lock, so it costs a couple of field updates.
+ */
+
+public class WishboneMetrics {
+
+    public static final int OP_READ16 = 0;
+    public static final int OP_WRITE16 = 1;
+    public static final int OP_WRITE = 2;
+    public static final int OP_READ_BURST = 3;
+    public static final int OP_WRITE_BURST = 4;
+    public static final int OPS = 5;
+
+    private static final String[] OP_NAMES = {"read16", "write16", "write", "readBurst", "writeBurst"};
+
+    private final Map<String, Stats> tags = new LinkedHashMap<>();
+
+    synchronized Stats forTag(String tag) {
+        Stats stats = tags.get(tag);
+        if (stats == null) {
+            stats = new Stats(tag);
+            tags.put(tag, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Copy of the statistics of every tag. Take it through {@link Wishbone#getMetrics()},
+     * which holds the bus lock while copying.
+     */
+    synchronized Map<String, Stats> snapshot() {
+        Map<String, Stats> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, Stats> entry : tags.entrySet()) {
+            Stats stats = new Stats(entry.getKey());
+            stats.copyFrom(entry.getValue());
+            copy.put(entry.getKey(), stats);
+        }
+        return copy;
+    }
+
+    synchronized void reset() {
+        for (Stats stats : tags.values()) {
+            stats.reset();
+        }
+    }
+
+    public static String getOperationName(int op) {
+        return OP_NAMES[op];
+    }
+
+    public static class Stats {
+
+        private final String tag;
+        private final long[] transfers = new long[OPS];
+        private final long[] bytes = new long[OPS];
+        private final long[] errors = new long[OPS];
+        private final long[] lockWaitNanos = new long[OPS];
+        private final long[] transferNanos = new long[OPS];
+        private final LatencyHistogram[] latency = new LatencyHistogram[OPS];
+
+        Stats(String tag) {
+            this.tag = tag;
+            for (int op = 0; op < OPS; op++) {
+                latency[op] = new LatencyHistogram();
+            }
+        }
+
+        void record(int op, int length, boolean success, long waitNanos, long transferTime) {
+            transfers[op]++;
+            bytes[op] += length;
+            if (!success) errors[op]++;
+            lockWaitNanos[op] += waitNanos;
+            transferNanos[op] += transferTime;
+            latency[op].record(waitNanos + transferTime);
+        }
+
+        void copyFrom(Stats other) {
+            for (int op = 0; op < OPS; op++) {
+                transfers[op] = other.transfers[op];
+                bytes[op] = other.bytes[op];
+                errors[op] = other.errors[op];
+                lockWaitNanos[op] = other.lockWaitNanos[op];
+                transferNanos[op] = other.transferNanos[op];
+                latency[op].copyFrom(other.latency[op]);
+            }
+        }
+
+        void reset() {
+            for (int op = 0; op < OPS; op++) {
+                transfers[op] = 0;
+                bytes[op] = 0;
+                errors[op] = 0;
+                lockWaitNanos[op] = 0;
+                transferNanos[op] = 0;
+                latency[op].reset();
+            }
+        }
+
+        public String getTag() {
+            return tag;
+        }
+
+        public long getTransfers(int op) {
+            return transfers[op];
+        }
+
+        public long getBytes(int op) {
+            return bytes[op];
+        }
+
+        public long getErrors(int op) {
+            return errors[op];
+        }
+
+        public long getLockWaitNanos(int op) {
+            return lockWaitNanos[op];
+        }
+
+        public long getTransferNanos(int op) {
+            return transferNanos[op];
+        }
+
+        /**
+         * Lock wait plus transfer time of every call.
+         */
+        public LatencyHistogram getLatency(int op) {
+            return latency[op];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder(tag).append(':');
+            for (int op = 0; op < OPS; op++) {
+                if (transfers[op] == 0) continue;
+                out.append(' ').append(OP_NAMES[op])
+                        .append("[n=").append(transfers[op])
+                        .append(" bytes=").append(bytes[op])
+                        .append(" err=").append(errors[op])
+                        .append(" wait=").append(lockWaitNanos[op] / 1000).append("us")
+                        .append(" xfer=").append(transferNanos[op] / 1000).append("us")
+                        .append(" p50=").append(latency[op].getPercentile(50) / 1000).append("us")
+                        .append(" p99=").append(latency[op].getPercentile(99) / 1000).append("us")
+                        .append(" max=").append(latency[op].getMax() / 1000).append("us]");
+            }
+            return out.toString();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package admobilize.matrix.gt.matrix;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Asynchronous front end for {@link Wishbone}. Callers queue reads and writes and get a
+ * {@link Future} (or a {@link Callback}) back instead of waiting for the SPI round trip;
+ * a single bus owner thread drains the queue in order and merges consecutive requests
+ * of the same kind on contiguous addresses into one burst.
+ */
+
+public class WishboneQueue {
+
+    public interface Callback {
+        void onComplete(boolean success);
+    }
+
+    // requests taken from the queue per pass
+    private static final int MAX_BATCH = 64;
+
+    private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final ArrayList<Request> batch = new ArrayList<>(MAX_BATCH);
+    private final Wishbone.Batch transfers;
+
+    private final Object submitLock = new Object();
+    private volatile boolean running;
+    private Thread thread;
+
+    private volatile long completed;
+    private volatile long bursts;
+    private volatile long maxQueueDepth;
+    private volatile long latencySumNanos;
+    private volatile long latencyMaxNanos;
+
+    public WishboneQueue(Wishbone wb) {
+        this.transfers = wb.tagged(WishboneQueue.class.getSimpleName()).batch();
+    }
+
+    /**
+     * Queue a read of {@code length} bytes into {@code data}. The bus thread fills
+     * {@code data} later, it is only valid once the future completed.
+     *
+     * @throws IllegalArgumentException if {@code data} is null or too short, or
+     * {@code length} is not in 1..{@link Wishbone#MAX_BURST_LENGTH}
+     */
+    public Future<Boolean> read(short add, byte[] data, int length) {
+        return submit(new Request(true, add, data, length, null));
+    }
+
+    public Future<Boolean> read(short add, byte[] data, int length, Callback callback) {
+        return submit(new Request(true, add, data, length, callback));
+    }
+
+    /**
+     * Queue a write of the first {@code length} bytes of {@code data}. The bus thread
+     * reads {@code data} later, so the caller must not reuse it before the future
+     * completed.
+     *
+     * @throws IllegalArgumentException if {@code data} is null or too short, or
+     * {@code length} is not in 1..{@link Wishbone#MAX_BURST_LENGTH}
+     */
+    public Future<Boolean> write(short add, byte[] data, int length) {
+        return submit(new Request(false, add, data, length, null));
+    }
+
+    public Future<Boolean> write(short add, byte[] data, int length, Callback callback) {
+        return submit(new Request(false, add, data, length, callback));
+    }
+
+    private Future<Boolean> submit(Request request) {
+        // checked and added under the lock stop() clears running with, so nothing is
+        // queued after the bus thread decided to exit
+        synchronized (submitLock) {
+            if (!running) throw new IllegalStateException("WishboneQueue is not running");
+            queue.add(request);
+            int depth = queue.size();
+            if (depth > maxQueueDepth) maxQueueDepth = depth;
+        }
+        return request.future;
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        synchronized (submitLock) {
+            running = true;
+        }
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                busLoop();
+            }
+        }, WishboneQueue.class.getSimpleName());
+        thread.start();
+    }
+
+    /**
+     * Stop the bus owner thread once the requests queued so far are served.
+     */
+    public synchronized void stop() {
+        // not held while joining: callbacks run on the bus thread may still submit
+        synchronized (submitLock) {
+            running = false;
+        }
+        if (thread == null) return;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    private void busLoop() {
+        while (running || !queue.isEmpty()) {
+            try {
+                Request first = queue.take();
+                batch.add(first);
+            } catch (InterruptedException e) {
+                if (!running && queue.isEmpty()) return;
+                continue;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            execute();
+            batch.clear();
+        }
+    }
+
+    private void execute() {
+        // the whole pass goes out under one bus lock acquisition, merged by the batch;
+        // requests were validated on submit, so building the batch cannot fail
+        int completed;
+        try {
+            transfers.clear();
+            for (int i = 0; i < batch.size(); i++) {
+                Request request = batch.get(i);
+                if (request.read) {
+                    transfers.read(request.add, request.data, 0, request.length);
+                } else {
+                    transfers.write(request.add, request.data, 0, request.length);
+                }
+            }
+            bursts += transfers.getTransfers();
+            transfers.execute();
+            completed = transfers.getCompleted();
+        } catch (RuntimeException e) {
+            // e.g. an unchecked failure of the transport: fail this pass, keep serving
+            e.printStackTrace();
+            transfers.clear();
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.completeExceptionally(e);
+            }
+            return;
+        }
+        long now = System.nanoTime();
+        for (int i = 0; i < batch.size(); i++) {
+            complete(batch.get(i), i < completed, now);
+        }
+    }
+
+    private void complete(Request request, boolean success, long now) {
+        long latency = now - request.enqueued;
+        latencySumNanos += latency;
+        if (latency > latencyMaxNanos) latencyMaxNanos = latency;
+        completed++;
+        if (request.callback != null) {
+            try {
+                request.callback.onComplete(success);
+            } catch (RuntimeException e) {
+                // a failing callback must not take the bus thread down
+                e.printStackTrace();
+                request.future.completeExceptionally(e);
+                return;
+            }
+        }
+        request.future.complete(success);
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public long getCompleted() {
+        return completed;
+    }
+
+    /**
+     * SPI bursts issued, lower than {@link #getCompleted()} when requests were merged.
+     */
+    public long getBursts() {
+        return bursts;
+    }
+
+    public long getMeanLatencyNanos() {
+        long count = completed;
+        return count == 0 ? 0 : latencySumNanos / count;
+    }
+
+    public long getMaxLatencyNanos() {
+        return latencyMaxNanos;
+    }
+
+    private static class Request {
+        final boolean read;
+        final short add;
+        final byte[] data;
+        final int length;
+        final Callback callback;
+        final long enqueued = System.nanoTime();
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        Request(boolean read, short add, byte[] data, int length, Callback callback) {
+            // rejected here, on the caller thread, rather than failing on the bus thread
+            if (data == null) throw new IllegalArgumentException("Null buffer");
+            if (length <= 0 || length > Wishbone.MAX_BURST_LENGTH) {
+                throw new IllegalArgumentException("Invalid request length: " + length);
+            }
+            if (length > data.length) {
+                throw new IllegalArgumentException("Buffer too short: " + data.length + " < " + length);
+            }
+            this.read = read;
+            this.add = add;
+            this.data = data;
+            this.length = length;
+            this.callback = callback;
+        }
+    }
+}
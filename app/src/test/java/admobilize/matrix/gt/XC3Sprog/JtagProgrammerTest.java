@@ -0,0 +1,56 @@
+package admobilize.matrix.gt.XC3Sprog;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JtagProgrammerTest {
+
+    private static final int LENGTH = 3 * JtagProgrammer.CHUNK_SIZE + 100;
+
+    @Test
+    public void detectsTheCreatorChain() throws IOException {
+        JtagProgrammer programmer = new JtagProgrammer(TapSimulator.creator());
+        assertArrayEquals(new int[]{0x4BA00477, 0x24000093}, programmer.detectChain());
+        assertEquals(1, programmer.getTarget());
+    }
+
+    @Test
+    public void detectsChainWithUnknownDevice() throws IOException {
+        TapSimulator chain = new TapSimulator(new TapSimulator.Device(0x12345677, 5, 0x01, 0x1F),
+                new TapSimulator.Spartan6(0x24000093));
+        JtagProgrammer programmer = new JtagProgrammer(chain);
+        programmer.detectChain();
+        programmer.program(BitFile.open(new ByteArrayInputStream(TapSimulator.bitFile(LENGTH))));
+        assertTrue(((TapSimulator.Spartan6) chain.getDevice(1)).isDone());
+    }
+
+    @Test
+    public void programsTheBitstream() throws IOException {
+        byte[] bitFile = TapSimulator.bitFile(LENGTH);
+        BitFile bit = BitFile.open(new ByteArrayInputStream(bitFile));
+        assertEquals("simulator.ncd", bit.getDesign());
+        assertEquals(LENGTH, bit.getLength());
+
+        TapSimulator chain = TapSimulator.creator();
+        JtagProgrammer programmer = new JtagProgrammer(chain);
+        programmer.program(bit);
+
+        TapSimulator.Spartan6 fpga = (TapSimulator.Spartan6) chain.getDevice(programmer.getTarget());
+        assertTrue(fpga.isDone());
+        // everything after the sync word reached the configuration logic, in order
+        int data = bitFile.length - LENGTH;
+        int config = data + TapSimulator.SYNC_OFFSET + 4;
+        CRC32 crc = new CRC32();
+        crc.update(bitFile, config, bitFile.length - config);
+        assertEquals(bitFile.length - config, fpga.getConfigBytes());
+        assertEquals(crc.getValue(), fpga.getConfigCrc());
+        assertEquals(8L * LENGTH, programmer.getProgrammedBits());
+    }
+}
@@ -0,0 +1,364 @@
+package admobilize.matrix.gt.XC3Sprog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * In-memory JTAG chain implementing {@link JtagCable}, to run the {@link JtagProgrammer}
+ * off the board. Every device has the 16 state TAP controller, an instruction register
+ * and IDCODE/BYPASS data registers; the {@link Spartan6} model also takes configuration
+ * data in CFG_IN, finds the sync word and raises DONE after JSTART.
+ *
+ * Devices are listed from TDO on, like the programmer numbers them.
+ */
+
+public class TapSimulator implements JtagCable {
+
+    static final int TEST_LOGIC_RESET = 0;
+    static final int RUN_TEST_IDLE = 1;
+    static final int SELECT_DR = 2;
+    static final int CAPTURE_DR = 3;
+    static final int SHIFT_DR = 4;
+    static final int EXIT1_DR = 5;
+    static final int PAUSE_DR = 6;
+    static final int EXIT2_DR = 7;
+    static final int UPDATE_DR = 8;
+    static final int SELECT_IR = 9;
+    static final int CAPTURE_IR = 10;
+    static final int SHIFT_IR = 11;
+    static final int EXIT1_IR = 12;
+    static final int PAUSE_IR = 13;
+    static final int EXIT2_IR = 14;
+    static final int UPDATE_IR = 15;
+
+    // next state for TMS low and high
+    private static final int[][] NEXT = {
+            {RUN_TEST_IDLE, TEST_LOGIC_RESET},
+            {RUN_TEST_IDLE, SELECT_DR},
+            {CAPTURE_DR, SELECT_IR},
+            {SHIFT_DR, EXIT1_DR},
+            {SHIFT_DR, EXIT1_DR},
+            {PAUSE_DR, UPDATE_DR},
+            {PAUSE_DR, EXIT2_DR},
+            {SHIFT_DR, UPDATE_DR},
+            {RUN_TEST_IDLE, SELECT_DR},
+            {CAPTURE_IR, TEST_LOGIC_RESET},
+            {SHIFT_IR, EXIT1_IR},
+            {SHIFT_IR, EXIT1_IR},
+            {PAUSE_IR, UPDATE_IR},
+            {PAUSE_IR, EXIT2_IR},
+            {SHIFT_IR, UPDATE_IR},
+            {RUN_TEST_IDLE, SELECT_DR},
+    };
+
+    private final Device[] chain;
+    private int state = TEST_LOGIC_RESET;
+    private long clocks;
+
+    /**
+     * Same data size as the matrix_system.bit bundled with the app.
+     */
+    public static final int CREATOR_BITSTREAM_BYTES = 340884;
+    // offset of the sync word in the data of {@link #bitFile(int)}
+    public static final int SYNC_OFFSET = 16;
+
+    public TapSimulator(Device... chain) {
+        this.chain = chain;
+    }
+
+    /**
+     * The chain of the Creator as xc3sprog sees it: an ARM debug port, then the FPGA at
+     * position 1.
+     */
+    public static TapSimulator creator() {
+        return new TapSimulator(new Device(0x4BA00477, 4, 0xE, 0xF), new Spartan6(0x24000093));
+    }
+
+    /**
+     * A .bit file with a Spartan-6 header and {@code length} bytes of data: padding, the
+     * sync word at {@link #SYNC_OFFSET}, then random configuration data.
+     */
+    public static byte[] bitFile(int length) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(length + 128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(9);
+        out.write(new byte[]{0x0f, (byte) 0xf0, 0x0f, (byte) 0xf0, 0x0f, (byte) 0xf0, 0x0f, (byte) 0xf0, 0x00});
+        out.writeShort(1);
+        writeField(out, 'a', "simulator.ncd");
+        writeField(out, 'b', "6slx4tqg144");
+        writeField(out, 'c', "2017/01/01");
+        writeField(out, 'd', "00:00:00");
+        out.writeByte('e');
+        out.writeInt(length);
+
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        for (int i = 0; i < SYNC_OFFSET; i++) data[i] = (byte) 0xFF;
+        data[SYNC_OFFSET] = (byte) 0xAA;
+        data[SYNC_OFFSET + 1] = (byte) 0x99;
+        data[SYNC_OFFSET + 2] = 0x55;
+        data[SYNC_OFFSET + 3] = 0x66;
+        out.write(data);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeField(DataOutputStream out, char key, String value) throws IOException {
+        out.writeByte(key);
+        out.writeShort(value.length() + 1);
+        out.writeBytes(value);
+        out.writeByte(0);
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    public long getClocks() {
+        return clocks;
+    }
+
+    public Device getDevice(int position) {
+        return chain[position];
+    }
+
+    @Override
+    public void clockTms(int tms, int bits) {
+        for (int i = 0; i < bits; i++) {
+            clock(((tms >>> i) & 1) != 0, true);
+        }
+    }
+
+    @Override
+    public void clock(int cycles) {
+        for (int i = 0; i < cycles; i++) {
+            clock(false, false);
+        }
+    }
+
+    @Override
+    public void shift(byte[] tdi, int offset, byte[] tdo, int bits, boolean exit) {
+        if (tdo != null) {
+            for (int i = 0; i < (bits + 7) >> 3; i++) tdo[offset + i] = 0;
+        }
+        for (int i = 0; i < bits; i++) {
+            int index = offset + (i >> 3);
+            int mask = 1 << (i & 7);
+            boolean in = tdi == null || (tdi[index] & mask) != 0;
+            if (clock(exit && i == bits - 1, in) && tdo != null) tdo[index] |= mask;
+        }
+    }
+
+    /**
+     * One TCK cycle.
+     *
+     * @return TDO level before the rising edge
+     */
+    private boolean clock(boolean tms, boolean tdi) {
+        clocks++;
+        boolean out = tdi;
+        if (state == SHIFT_DR || state == SHIFT_IR) {
+            // the bit leaving each device enters the next one towards TDO
+            boolean ir = state == SHIFT_IR;
+            for (int d = chain.length - 1; d >= 0; d--) {
+                out = chain[d].shift(ir, out);
+            }
+        } else {
+            for (Device device : chain) device.onClock(state);
+        }
+        state = NEXT[state][tms ? 1 : 0];
+        if (state == TEST_LOGIC_RESET) {
+            for (Device device : chain) device.reset();
+        }
+        return out;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * A device with IDCODE and BYPASS only.
+     */
+    public static class Device {
+        final int idcode;
+        final int irLength;
+        final int idcodeInstruction;
+        final int bypassInstruction;
+
+        int instruction;
+        long ir;
+        long dr;
+        int drLength;
+
+        public Device(int idcode, int irLength, int idcodeInstruction, int bypassInstruction) {
+            this.idcode = idcode;
+            this.irLength = irLength;
+            this.idcodeInstruction = idcodeInstruction;
+            this.bypassInstruction = bypassInstruction;
+            reset();
+        }
+
+        void reset() {
+            instruction = idcodeInstruction;
+        }
+
+        int captureIr() {
+            return 0x1;
+        }
+
+        void captureDr() {
+            if (instruction == idcodeInstruction) {
+                dr = idcode & 0xFFFFFFFFL;
+                drLength = 32;
+            } else {
+                dr = 0;
+                drLength = 1;
+            }
+        }
+
+        /**
+         * Shift {@code in} into the selected register.
+         *
+         * @return the bit shifted out
+         */
+        boolean shift(boolean ir, boolean in) {
+            if (ir) {
+                boolean out = (this.ir & 1) != 0;
+                this.ir = (this.ir >>> 1) | ((in ? 1L : 0L) << (irLength - 1));
+                return out;
+            }
+            boolean out = (dr & 1) != 0;
+            dr = (dr >>> 1) | ((in ? 1L : 0L) << (drLength - 1));
+            return out;
+        }
+
+        void onClock(int state) {
+            switch (state) {
+                case CAPTURE_IR:
+                    ir = captureIr();
+                    break;
+                case CAPTURE_DR:
+                    captureDr();
+                    break;
+                case UPDATE_IR:
+                    instruction = (int) ir;
+                    onInstruction();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        void onInstruction() {
+        }
+
+        public int getInstruction() {
+            return instruction;
+        }
+    }
+
+    /**
+     * Spartan-6 configuration logic, just enough to follow the programming flow.
+     */
+    public static class Spartan6 extends Device {
+
+        private static final int SYNC_WORD = 0xAA995566;
+        private static final int INIT_CLOCKS = 64;
+        private static final int STARTUP_CLOCKS = 12;
+
+        private final CRC32 crc = new CRC32();
+        private int initClocks;
+        private int startupClocks;
+        private boolean done;
+
+        private int window;
+        private boolean synced;
+        private int bitCount;
+        private int current;
+        private long configBytes;
+
+        public Spartan6(int idcode) {
+            super(idcode, JtagProgrammer.SPARTAN6_IR_LENGTH, JtagProgrammer.IDCODE,
+                    JtagProgrammer.BYPASS);
+        }
+
+        @Override
+        int captureIr() {
+            int capture = 0x1;
+            if (initClocks >= INIT_CLOCKS) capture |= JtagProgrammer.IR_INIT_COMPLETE;
+            if (done) capture |= JtagProgrammer.IR_DONE;
+            return capture;
+        }
+
+        @Override
+        void onInstruction() {
+            if (instruction == JtagProgrammer.JPROGRAM) {
+                done = false;
+                synced = false;
+                window = 0;
+                bitCount = 0;
+                configBytes = 0;
+                crc.reset();
+                initClocks = 0;
+            } else if (instruction == JtagProgrammer.JSTART) {
+                startupClocks = 0;
+            }
+        }
+
+        @Override
+        void onClock(int state) {
+            super.onClock(state);
+            if (initClocks < INIT_CLOCKS) initClocks++;
+            if (state == RUN_TEST_IDLE && instruction == JtagProgrammer.JSTART
+                    && ++startupClocks >= STARTUP_CLOCKS && synced) {
+                done = true;
+            }
+        }
+
+        @Override
+        boolean shift(boolean ir, boolean in) {
+            if (ir || instruction != JtagProgrammer.CFG_IN) return super.shift(ir, in);
+            configure(in);
+            return false;
+        }
+
+        /**
+         * Configuration data arrives MSB of each byte first.
+         */
+        private void configure(boolean in) {
+            if (initClocks < INIT_CLOCKS) return;
+            int bit = in ? 1 : 0;
+            if (!synced) {
+                window = (window << 1) | bit;
+                synced = window == SYNC_WORD;
+                return;
+            }
+            current = (current << 1) | bit;
+            if (++bitCount == 8) {
+                crc.update(current & 0xFF);
+                configBytes++;
+                bitCount = 0;
+                current = 0;
+            }
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        /**
+         * Bytes received after the sync word.
+         */
+        public long getConfigBytes() {
+            return configBytes;
+        }
+
+        public long getConfigCrc() {
+            return crc.getValue();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package admobilize.matrix.gt.matrix;
+
+import java.io.IOException;
+
+/**
+ * In-memory Wishbone bus. It decodes the two header bytes built by
+ * {@link Wishbone} (14 bit word address, increment and read flags), serves
+ * reads and stores writes on a 16 bit word memory, and counts every transaction
+ * so callers can check how many SPI transfers an operation really costs.
+ */
+
+public class FakeSpiTransport implements SpiTransport {
+
+    // 14 bits of word address -> 16K words of 16 bits
+    private static final int WORDS = 0x4000;
+
+    private final byte[] memory = new byte[WORDS * 2];
+
+    private long transactions;
+    private long bytes;
+
+    @Override
+    public synchronized void transfer(byte[] tx_buffer, byte[] rx_buffer, int length) throws IOException {
+        if (length < 2) throw new IOException("Wishbone header needs 2 bytes, got " + length);
+        transactions++;
+        bytes += length;
+
+        int add = address(tx_buffer);
+        boolean inc = isIncrement(tx_buffer);
+        boolean read = isRead(tx_buffer);
+
+        rx_buffer[0] = 0;
+        rx_buffer[1] = 0;
+        for (int i = 2; i < length; i++) {
+            int word = inc ? add + ((i - 2) >> 1) : add;
+            int pos = ((word % WORDS) << 1) + ((i - 2) & 1);
+            if (read) rx_buffer[i] = memory[pos];
+            else {
+                memory[pos] = tx_buffer[i];
+                rx_buffer[i] = 0;
+            }
+        }
+    }
+
+    static int address(byte[] tx_buffer) {
+        return ((tx_buffer[0] & 0xFF) << 6) | ((tx_buffer[1] & 0xFC) >> 2);
+    }
+
+    static boolean isIncrement(byte[] tx_buffer) {
+        return (tx_buffer[1] & 0x02) != 0;
+    }
+
+    static boolean isRead(byte[] tx_buffer) {
+        return (tx_buffer[1] & 0x01) != 0;
+    }
+
+    /**
+     * Store raw bytes starting at the word address {@code add}, without counting a transaction.
+     */
+    public synchronized void poke(int add, byte[] data, int offset, int length) {
+        System.arraycopy(data, offset, memory, add << 1, length);
+    }
+
+    /**
+     * Copy raw bytes starting at the word address {@code add}, without counting a transaction.
+     */
+    public synchronized void peek(int add, byte[] data, int offset, int length) {
+        System.arraycopy(memory, add << 1, data, offset, length);
+    }
+
+    public synchronized long getTransactions() {
+        return transactions;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized void resetCounters() {
+        transactions = 0;
+        bytes = 0;
+    }
+}
@@ -0,0 +1,64 @@
+package admobilize.matrix.gt.matrix;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MatrixGpioTest {
+
+    private static final int GPIO = 0x2800;
+
+    private FakeSpiTransport transport;
+    private MatrixGpio gpio;
+
+    @Before
+    public void setUp() {
+        transport = new FakeSpiTransport();
+        gpio = new MatrixGpio(new Wishbone(transport));
+    }
+
+    @Test
+    public void unchangedPinsCostNoTransaction() {
+        assertTrue(gpio.setValue(3, true));
+        assertTrue(gpio.setValue(3, true));
+        assertTrue(gpio.write(0x0008, 0x0008));
+        assertEquals(1, transport.getTransactions());
+        assertEquals(0x0008, gpio.getOutputs());
+    }
+
+    @Test
+    public void readsEveryPinInOneTransaction() {
+        transport.poke(GPIO + 1, new byte[]{(byte) 0x81, 0x40}, 0, 2);
+        assertEquals(0x4081, gpio.readAll());
+        assertEquals(1, transport.getTransactions());
+        assertTrue(gpio.getValue(0));
+        assertFalse(gpio.getValue(1));
+        assertTrue(gpio.getValue(14));
+    }
+
+    @Test
+    public void masksIgnoreBitsBeyondThePins() {
+        assertTrue(gpio.write(0xFFFF0001, 0xFFFFFFFF));
+        assertEquals(0x0001, gpio.getOutputs());
+        assertTrue(gpio.setDirection(0x10000, 0x10000));
+        assertEquals(0, gpio.getDirection());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pinAboveRangeIsRejected() {
+        gpio.setValue(MatrixGpio.PINS, true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativePinIsRejected() {
+        gpio.setDirection(-1, true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readOfPinAboveRangeIsRejected() {
+        gpio.getValue(16);
+    }
+}
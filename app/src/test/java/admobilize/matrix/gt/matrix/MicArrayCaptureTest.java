@@ -0,0 +1,92 @@
+package admobilize.matrix.gt.matrix;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MicArrayCaptureTest {
+
+    private static final int MIC_ARRAY = 0x1800;
+
+    private FakeSpiTransport transport;
+    private MicArray micArray;
+
+    @Before
+    public void setUp() {
+        transport = new FakeSpiTransport();
+        micArray = new MicArray(new Wishbone(transport));
+    }
+
+    @Test
+    public void deliversFramesInOrder() {
+        MicArrayCapture capture = new MicArrayCapture(micArray, 4);
+        for (int frame = 0; frame < 10; frame++) {
+            pokeFrame(frame);
+            assertTrue(capture.captureFrame());
+
+            PcmBlock block = capture.poll();
+            assertNotNull(block);
+            assertEquals(frame, block.getSequence());
+            assertFrame(frame, block);
+            capture.release(block);
+        }
+        assertEquals(10, capture.getFrames());
+        assertEquals(0, capture.getOverruns());
+        assertEquals(10, transport.getTransactions());
+    }
+
+    @Test
+    public void stalledConsumerCountsOverruns() {
+        MicArrayCapture capture = new MicArrayCapture(micArray, 2);
+        for (int frame = 0; frame < 3; frame++) {
+            pokeFrame(frame);
+            assertEquals(frame < 2, capture.captureFrame());
+        }
+        assertEquals(1, capture.getOverruns());
+        assertEquals(2, capture.getQueued());
+
+        // the queued blocks keep their frames, the overrun one was drained and dropped
+        PcmBlock first = capture.poll();
+        assertFrame(0, first);
+        PcmBlock second = capture.poll();
+        assertFrame(1, second);
+        assertNull(capture.poll());
+
+        capture.release(first);
+        pokeFrame(3);
+        assertTrue(capture.captureFrame());
+        PcmBlock next = capture.poll();
+        assertEquals(3, next.getSequence());
+        assertFrame(3, next);
+        assertEquals(1, capture.getOverruns());
+    }
+
+    private static short sample(int frame, int channel, int sample) {
+        return (short) (frame * 1000 + channel * 100 + sample - 20000);
+    }
+
+    private void pokeFrame(int frame) {
+        byte[] raw = new byte[MicArray.CHANNELS * MicArray.SAMPLES_PER_FRAME * 2];
+        for (int s = 0; s < MicArray.SAMPLES_PER_FRAME; s++) {
+            for (int c = 0; c < MicArray.CHANNELS; c++) {
+                short value = sample(frame, c, s);
+                int i = 2 * (s * MicArray.CHANNELS + c);
+                raw[i] = (byte) value;
+                raw[i + 1] = (byte) (value >> 8);
+            }
+        }
+        transport.poke(MIC_ARRAY, raw, 0, raw.length);
+    }
+
+    private static void assertFrame(int frame, PcmBlock block) {
+        for (int s = 0; s < MicArray.SAMPLES_PER_FRAME; s++) {
+            for (int c = 0; c < MicArray.CHANNELS; c++) {
+                assertEquals(sample(frame, c, s), block.getSample(c, s));
+            }
+        }
+    }
+}
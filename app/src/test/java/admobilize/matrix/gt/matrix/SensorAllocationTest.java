@@ -0,0 +1,109 @@
+package admobilize.matrix.gt.matrix;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * A steady-state sensor poll must not allocate: the drivers decode into their own
+ * fields from preallocated buffers.
+ */
+public class SensorAllocationTest {
+
+    private static final int WARMUP = 20000;
+    private static final int READS = 10000;
+    private static final int ROUNDS = 3;
+
+    private com.sun.management.ThreadMXBean threads;
+    private long thread;
+    private Wishbone wb;
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        thread = Thread.currentThread().getId();
+        wb = new Wishbone(new FakeSpiTransport());
+    }
+
+    @Test
+    public void imuRead() {
+        final IMU imu = new IMU(wb);
+        assertNoAllocation(new Runnable() {
+            @Override
+            public void run() {
+                imu.read();
+            }
+        });
+    }
+
+    @Test
+    public void uvRead() {
+        final UV uv = new UV(wb);
+        assertNoAllocation(new Runnable() {
+            @Override
+            public void run() {
+                uv.read();
+            }
+        });
+    }
+
+    @Test
+    public void pressureRead() {
+        final Pressure pressure = new Pressure(wb);
+        assertNoAllocation(new Runnable() {
+            @Override
+            public void run() {
+                pressure.read();
+            }
+        });
+    }
+
+    @Test
+    public void humidityRead() {
+        final Humidity humidity = new Humidity(wb);
+        assertNoAllocation(new Runnable() {
+            @Override
+            public void run() {
+                humidity.read();
+            }
+        });
+    }
+
+    @Test
+    public void snapshotRead() {
+        final McuSensors sensors = new McuSensors(wb);
+        final SensorSnapshot snapshot = new SensorSnapshot();
+        assertNoAllocation(new Runnable() {
+            @Override
+            public void run() {
+                sensors.read(snapshot);
+            }
+        });
+    }
+
+    private void assertNoAllocation(Runnable poll) {
+        for (int i = 0; i < WARMUP; i++) poll.run();
+        // the probe itself may allocate, measure it with an empty loop first
+        long before = threads.getThreadAllocatedBytes(thread);
+        long probe = threads.getThreadAllocatedBytes(thread) - before;
+
+        // a late JIT recompilation can charge a few bytes to the thread once, a
+        // per-read allocation shows up in every round
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < READS; i++) poll.run();
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(thread) - before - probe);
+        }
+
+        assertEquals("bytes allocated by " + READS + " reads", 0, allocated);
+    }
+}
@@ -0,0 +1,122 @@
+package admobilize.matrix.gt.matrix;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WishboneQueueTest {
+
+    private static final long TIMEOUT_S = 5;
+
+    private FakeSpiTransport transport;
+    private WishboneQueue queue;
+
+    @Before
+    public void setUp() {
+        transport = new FakeSpiTransport();
+        queue = new WishboneQueue(new Wishbone(transport));
+        queue.start();
+    }
+
+    @After
+    public void tearDown() {
+        queue.stop();
+    }
+
+    @Test
+    public void writesThenReadsBack() throws Exception {
+        byte[] data = {1, 2, 3, 4};
+        byte[] back = new byte[4];
+        Future<Boolean> write = queue.write((short) 0x100, data, data.length);
+        Future<Boolean> read = queue.read((short) 0x100, back, back.length);
+        assertTrue(write.get(TIMEOUT_S, TimeUnit.SECONDS));
+        assertTrue(read.get(TIMEOUT_S, TimeUnit.SECONDS));
+        assertArrayEquals(data, back);
+    }
+
+    @Test
+    public void invalidRequestsAreRejectedOnSubmit() throws Exception {
+        assertRejected(null, 2);
+        assertRejected(new byte[4], 0);
+        assertRejected(new byte[4], -2);
+        assertRejected(new byte[4], 6);
+        assertRejected(new byte[Wishbone.MAX_BURST_LENGTH + 2], Wishbone.MAX_BURST_LENGTH + 2);
+        // the bus thread is still serving
+        assertTrue(queue.read((short) 0, new byte[2], 2).get(TIMEOUT_S, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void throwingCallbackFailsOnlyItsRequest() throws Exception {
+        Future<Boolean> failing = queue.write((short) 0x10, new byte[2], 2, new WishboneQueue.Callback() {
+            @Override
+            public void onComplete(boolean success) {
+                throw new IllegalStateException("callback failure");
+            }
+        });
+        try {
+            failing.get(TIMEOUT_S, TimeUnit.SECONDS);
+            fail("callback failure not reported");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertTrue(queue.write((short) 0x10, new byte[2], 2).get(TIMEOUT_S, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void stopServesQueuedRequestsAndRejectsNewOnes() throws Exception {
+        Future<Boolean> last = null;
+        for (int i = 0; i < 100; i++) {
+            last = queue.write((short) (0x200 + i), new byte[2], 2);
+        }
+        queue.stop();
+        assertTrue(last.isDone());
+        assertEquals(100, queue.getCompleted());
+        try {
+            queue.write((short) 0x200, new byte[2], 2);
+            fail("submit after stop accepted");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void uncheckedTransportFailureFailsOnlyItsPass() throws Exception {
+        queue.stop();
+        final boolean[] fail = {true};
+        queue = new WishboneQueue(new Wishbone(new SpiTransport() {
+            @Override
+            public void transfer(byte[] tx_buffer, byte[] rx_buffer, int length) throws IOException {
+                if (fail[0]) {
+                    fail[0] = false;
+                    throw new IllegalStateException("transport failure");
+                }
+                transport.transfer(tx_buffer, rx_buffer, length);
+            }
+        }));
+        queue.start();
+        try {
+            queue.write((short) 0x10, new byte[2], 2).get(TIMEOUT_S, TimeUnit.SECONDS);
+            fail("transport failure not reported");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertTrue(queue.write((short) 0x10, new byte[2], 2).get(TIMEOUT_S, TimeUnit.SECONDS));
+    }
+
+    private void assertRejected(byte[] data, int length) {
+        try {
+            queue.write((short) 0, data, length);
+            fail("accepted length " + length);
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
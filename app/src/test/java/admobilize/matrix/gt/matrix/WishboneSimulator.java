@@ -0,0 +1,177 @@
+package admobilize.matrix.gt.matrix;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-memory model of the MATRIX Creator FPGA and MCU behind a {@link SpiTransport}, to
+ * run and measure the drivers on a plain JVM.
+ *
+ * On top of the word memory of {@link FakeSpiTransport} it maps the Wishbone regions
+ * (microphone array, Everloop, GPIO and MCU sensor block), counts transfers per region,
+ * lets tests set sensor values, microphone frames and GPIO input levels, and delays
+ * every transaction by a configurable fixed plus per-byte latency to mimic the SPI bus.
+ */
+
+public class WishboneSimulator extends FakeSpiTransport {
+
+    public static final int REGION_MIC_ARRAY = 0;
+    public static final int REGION_EVERLOOP = 1;
+    public static final int REGION_GPIO = 2;
+    public static final int REGION_MCU = 3;
+    public static final int REGION_UNMAPPED = 4;
+
+    // word address ranges, same map as SensorBase
+    private static final int[] REGION_BASE = {0x1800, 0x2000, 0x2800, 0x3800};
+    private static final int[] REGION_WORDS = {
+            MicArray.CHANNELS * MicArray.SAMPLES_PER_FRAME,
+            Everloop.LEDS * 2,
+            2,
+            0x90 / 2};
+    private static final int GPIO_DIRECTION = 0x2800;
+    private static final int GPIO_VALUE = 0x2801;
+
+    // spin instead of parking below this, parkNanos is too coarse for SPI latencies
+    private static final long SPIN_THRESHOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final long[] regionTransfers = new long[REGION_UNMAPPED + 1];
+    private final byte[] word = new byte[4];
+
+    private volatile long latencyNanos;
+    private volatile long latencyPerByteNanos;
+    private int gpioInputs;
+
+    /**
+     * Delay every transaction by {@code fixed} plus {@code perByte} for each byte clocked.
+     * At 18 MHz a byte takes ~450 ns on the wire.
+     */
+    public void setLatency(long fixed, long perByte, TimeUnit unit) {
+        this.latencyNanos = unit.toNanos(fixed);
+        this.latencyPerByteNanos = unit.toNanos(perByte);
+    }
+
+    @Override
+    public void transfer(byte[] tx_buffer, byte[] rx_buffer, int length) throws IOException {
+        long start = System.nanoTime();
+        super.transfer(tx_buffer, rx_buffer, length);
+        int add = address(tx_buffer);
+        synchronized (this) {
+            regionTransfers[region(add)]++;
+            if (isRead(tx_buffer)) patchGpioRead(tx_buffer, rx_buffer, add, length);
+        }
+        delay(start + latencyNanos + latencyPerByteNanos * length);
+    }
+
+    private static int region(int add) {
+        for (int r = 0; r < REGION_BASE.length; r++) {
+            if (add >= REGION_BASE[r] && add < REGION_BASE[r] + REGION_WORDS[r]) return r;
+        }
+        return REGION_UNMAPPED;
+    }
+
+    /**
+     * The GPIO value register reads back outputs on output pins and the input levels
+     * elsewhere.
+     */
+    private void patchGpioRead(byte[] tx_buffer, byte[] rx_buffer, int add, int length) {
+        boolean inc = isIncrement(tx_buffer);
+        for (int i = 2; i + 1 < length; i += 2) {
+            int current = inc ? add + ((i - 2) >> 1) : add;
+            if (current != GPIO_VALUE) continue;
+            int levels = (readWord(GPIO_VALUE) & readWord(GPIO_DIRECTION))
+                    | (gpioInputs & ~readWord(GPIO_DIRECTION));
+            rx_buffer[i] = (byte) levels;
+            rx_buffer[i + 1] = (byte) (levels >> 8);
+        }
+    }
+
+    private int readWord(int add) {
+        peek(add, word, 0, 2);
+        return (word[0] & 0xFF) | (word[1] & 0xFF) << 8;
+    }
+
+    private static void delay(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > SPIN_THRESHOLD_NANOS) LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+        }
+    }
+
+    public synchronized void setGpioInputs(int levels) {
+        this.gpioInputs = levels;
+    }
+
+    public synchronized int getGpioDirection() {
+        return readWord(GPIO_DIRECTION);
+    }
+
+    public synchronized int getGpioOutputs() {
+        return readWord(GPIO_VALUE);
+    }
+
+    public void setUV(float uv) {
+        setFloats(0x00, uv);
+    }
+
+    public void setPressure(float altitude, float pressure, float temperature) {
+        setFloats(0x10, altitude, pressure, temperature);
+    }
+
+    public void setHumidity(float humidity, float temperature) {
+        setFloats(0x20, humidity, temperature);
+    }
+
+    /**
+     * yaw, pitch, roll, ax, ay, az, gx, gy, gz, mx, my, mz
+     */
+    public void setIMU(float... values) {
+        if (values.length != 12) throw new IllegalArgumentException("IMU needs 12 values");
+        setFloats(0x30, values);
+    }
+
+    private void setFloats(int offset, float... values) {
+        byte[] data = new byte[values.length * 4];
+        for (int i = 0; i < values.length; i++) {
+            int bits = Float.floatToIntBits(values[i]);
+            data[4 * i] = (byte) bits;
+            data[4 * i + 1] = (byte) (bits >> 8);
+            data[4 * i + 2] = (byte) (bits >> 16);
+            data[4 * i + 3] = (byte) (bits >> 24);
+        }
+        poke(REGION_BASE[REGION_MCU] + (offset >> 1), data, 0, data.length);
+    }
+
+    /**
+     * Load the microphone buffer, samples interleaved as in {@link PcmBlock}.
+     */
+    public void setMicFrame(short[] samples) {
+        byte[] data = new byte[samples.length * 2];
+        for (int i = 0; i < samples.length; i++) {
+            data[2 * i] = (byte) samples[i];
+            data[2 * i + 1] = (byte) (samples[i] >> 8);
+        }
+        poke(REGION_BASE[REGION_MIC_ARRAY], data, 0, data.length);
+    }
+
+    /**
+     * Color of an Everloop LED as last written, packed as 0xRRGGBBWW.
+     */
+    public int getLed(int led) {
+        byte[] data = new byte[4];
+        peek(REGION_BASE[REGION_EVERLOOP] + led * 2, data, 0, 4);
+        return (data[1] & 0xFF) << 24 | (data[0] & 0xFF) << 16 | (data[2] & 0xFF) << 8 | (data[3] & 0xFF);
+    }
+
+    public synchronized long getRegionTransfers(int region) {
+        return regionTransfers[region];
+    }
+
+    @Override
+    public synchronized void resetCounters() {
+        super.resetCounters();
+        for (int r = 0; r < regionTransfers.length; r++) {
+            regionTransfers[r] = 0;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package admobilize.matrix.gt.matrix;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WishboneTest {
+
+    private static final int MCU = 0x3800;
+
+    private FakeSpiTransport transport;
+    private Wishbone wb;
+
+    @Before
+    public void setUp() {
+        transport = new FakeSpiTransport();
+        wb = new Wishbone(transport);
+    }
+
+    @Test
+    public void imuReadIsOneTransaction() {
+        float[] values = new float[12];
+        for (int i = 0; i < values.length; i++) values[i] = i * 1.5f - 3;
+        pokeFloats(0x30, values);
+        IMU imu = new IMU(wb);
+
+        transport.resetCounters();
+        imu.read();
+
+        assertEquals(1, transport.getTransactions());
+        assertEquals(values[0], imu.getYaw(), 0);
+        assertEquals(values[2], imu.getRoll(), 0);
+        assertEquals(values[5], imu.getAz(), 0);
+        assertEquals(values[11], imu.getMz(), 0);
+    }
+
+    @Test
+    public void everySensorReadIsOneTransaction() {
+        pokeFloats(0x00, 7.5f);
+        pokeFloats(0x10, 120f, 98000f, 21.5f);
+        pokeFloats(0x20, 45f, 22f);
+        UV uv = new UV(wb);
+        Pressure pressure = new Pressure(wb);
+        Humidity humidity = new Humidity(wb);
+
+        transport.resetCounters();
+        assertEquals(7.5f, uv.read(), 0);
+        assertEquals(1, transport.getTransactions());
+        pressure.read();
+        assertEquals(2, transport.getTransactions());
+        humidity.read();
+        assertEquals(3, transport.getTransactions());
+
+        assertEquals(98000f, pressure.getPressure(), 0);
+        assertEquals(21.5f, pressure.getTemperature(), 0);
+        assertEquals(45f, humidity.getHumidity(), 0);
+    }
+
+    @Test
+    public void burstRoundTrip() {
+        byte[] data = new byte[64];
+        new Random(1).nextBytes(data);
+        byte[] back = new byte[data.length];
+
+        assertTrue(wb.SpiWriteBurst((short) 0x100, data, data.length));
+        assertTrue(wb.SpiReadBurst((short) 0x100, back, back.length));
+
+        assertArrayEquals(data, back);
+        assertEquals(2, transport.getTransactions());
+        assertEquals(2 * (data.length + 2), transport.getBytes());
+    }
+
+    @Test
+    public void longBurstIsSplit() {
+        int length = 3 * Wishbone.MAX_BURST_LENGTH + 10;
+        byte[] data = new byte[length];
+        new Random(2).nextBytes(data);
+        byte[] back = new byte[length];
+
+        assertTrue(wb.SpiWriteBurst((short) 0x200, data, length));
+        assertEquals(4, transport.getTransactions());
+        assertTrue(wb.SpiReadBurst((short) 0x200, back, length));
+
+        assertArrayEquals(data, back);
+        byte[] raw = new byte[length];
+        transport.peek(0x200, raw, 0, length);
+        assertArrayEquals(data, raw);
+    }
+
+    @Test
+    public void batchMergesContiguousRequests() {
+        byte[] first = {1, 2, 3, 4};
+        byte[] second = {5, 6, 7, 8};
+        byte[] other = {9, 10};
+        Wishbone.Batch writes = wb.batch()
+                .write((short) 0x100, first, 0, 4)
+                .write((short) 0x102, second, 0, 4)
+                .write((short) 0x200, other, 0, 2);
+        assertEquals(2, writes.getTransfers());
+        assertTrue(writes.execute());
+        assertEquals(2, transport.getTransactions());
+
+        byte[] back = new byte[10];
+        Wishbone.Batch reads = wb.batch()
+                .read((short) 0x100, back, 0, 4)
+                .read((short) 0x102, back, 4, 4)
+                .read((short) 0x200, back, 8, 2);
+        assertTrue(reads.execute());
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10}, back);
+        assertEquals(3, reads.getCompleted());
+    }
+
+    @Test
+    public void batchKeepsRequestOrder() {
+        byte[] data = {42, 43};
+        byte[] back = new byte[2];
+        Wishbone.Batch batch = wb.batch()
+                .write((short) 0x300, data, 0, 2)
+                .read((short) 0x300, back, 0, 2);
+        assertTrue(batch.execute());
+        assertArrayEquals(data, back);
+
+        // executed again with new data, without rebuilding
+        data[0] = 7;
+        assertTrue(batch.execute());
+        assertEquals(7, back[0]);
+    }
+
+    private void pokeFloats(int offset, float... values) {
+        byte[] raw = new byte[values.length * 4];
+        for (int i = 0; i < values.length; i++) {
+            int bits = Float.floatToIntBits(values[i]);
+            raw[4 * i] = (byte) bits;
+            raw[4 * i + 1] = (byte) (bits >> 8);
+            raw[4 * i + 2] = (byte) (bits >> 16);
+            raw[4 * i + 3] = (byte) (bits >> 24);
+        }
+        transport.poke(MCU + (offset >> 1), raw, 0, raw.length);
+    }
+}
@@ -0,0 +1,46 @@
+package admobilize.matrix.gt.XC3Sprog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Programming a bitstream the size of the bundled one into a {@link TapSimulator}. Pin
+ * latency is not modeled, so the score is the software cost of a programming run; on
+ * the board {@link JtagProgrammer#getBitsPerSecond()} gives the real rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class JtagProgrammerBenchmark {
+
+    private byte[] bitFile;
+
+    @Setup
+    public void setup() throws IOException {
+        bitFile = TapSimulator.bitFile(TapSimulator.CREATOR_BITSTREAM_BYTES);
+    }
+
+    @Benchmark
+    public TapSimulator programFromStream() throws IOException {
+        TapSimulator chain = TapSimulator.creator();
+        new JtagProgrammer(chain).program(BitFile.open(new ByteArrayInputStream(bitFile)));
+        return chain;
+    }
+
+    @Benchmark
+    public TapSimulator programFromBuffer() throws IOException {
+        TapSimulator chain = TapSimulator.creator();
+        new JtagProgrammer(chain).program(BitFile.open(ByteBuffer.wrap(bitFile)));
+        return chain;
+    }
+}
@@ -0,0 +1,20 @@
+package admobilize.matrix.gt.matrix;
+
+import java.io.IOException;
+
+/**
+ * {@link FakeSpiTransport} with a plain transaction counter the benchmark thread reads
+ * without synchronizing. The transfer itself still takes the monitor of
+ * {@link FakeSpiTransport#transfer}, uncontended with a single benchmark thread, so
+ * it is part of every measured operation.
+ */
+public class CountingTransport extends FakeSpiTransport {
+
+    long count;
+
+    @Override
+    public void transfer(byte[] tx_buffer, byte[] rx_buffer, int length) throws IOException {
+        count++;
+        super.transfer(tx_buffer, rx_buffer, length);
+    }
+}
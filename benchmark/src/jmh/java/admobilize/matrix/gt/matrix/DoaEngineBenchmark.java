@@ -0,0 +1,58 @@
+package admobilize.matrix.gt.matrix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Direction of arrival on one microphone array frame; the array produces 125 frames/s.
+ */
+@State(Scope.Thread)
+public class DoaEngineBenchmark {
+
+    private DoaEngine engine;
+    private PcmBlock block;
+
+    @Setup
+    public void setup() {
+        engine = new DoaEngine();
+        block = synthesize((float) Math.toRadians(60));
+    }
+
+    @Benchmark
+    public float process() {
+        engine.process(block);
+        return engine.getAzimuth();
+    }
+
+    /**
+     * One frame of white noise reaching each microphone with the delay of a plane wave
+     * coming from {@code azimuth}, rounded to whole samples.
+     */
+    static PcmBlock synthesize(float azimuth) {
+        PcmBlock block = MicArray.newBlock();
+        int samples = block.getSamplesPerChannel();
+        int channels = block.getChannels();
+        int margin = 16;
+        short[] noise = new short[samples + 2 * margin];
+        Random random = new Random(42);
+        for (int i = 0; i < noise.length; i++) {
+            noise[i] = (short) (random.nextGaussian() * 3000);
+        }
+
+        double ux = Math.cos(azimuth);
+        double uy = Math.sin(azimuth);
+        short[] pcm = block.getSamples();
+        for (int c = 0; c < channels; c++) {
+            double distance = DoaEngine.MIC_X[c] * ux + DoaEngine.MIC_Y[c] * uy;
+            int delay = (int) Math.round(-distance / DoaEngine.SPEED_OF_SOUND * MicArray.SAMPLE_RATE);
+            for (int s = 0; s < samples; s++) {
+                pcm[s * channels + c] = noise[s + margin - delay];
+            }
+        }
+        return block;
+    }
+}
@@ -0,0 +1,60 @@
+package admobilize.matrix.gt.matrix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+
+/**
+ * Pushing Everloop frames over the bus.
+ */
+@State(Scope.Thread)
+public class EverloopFrameBenchmark {
+
+    private CountingTransport transport;
+    private Everloop everloop;
+    private final LedFrame frame = new LedFrame(Everloop.LEDS);
+    private ArrayList<Everloop.LedValue> ledValues;
+    private int counter;
+
+    @Setup
+    public void setup() {
+        transport = new CountingTransport();
+        everloop = new Everloop(new Wishbone(transport));
+        ledValues = everloop.ledImage;
+    }
+
+    @Benchmark
+    public boolean fullFrame(TransactionCounters counters) {
+        long before = transport.count;
+        counter++;
+        frame.fill(counter, counter >> 1, counter >> 2, 0);
+        boolean result = everloop.write(frame);
+        counters.transactions += transport.count - before;
+        return result;
+    }
+
+    @Benchmark
+    public boolean singleLed(TransactionCounters counters) {
+        long before = transport.count;
+        counter++;
+        frame.set(counter % Everloop.LEDS, counter, 0, 0, 0);
+        boolean result = everloop.write(frame);
+        counters.transactions += transport.count - before;
+        return result;
+    }
+
+    @Benchmark
+    public boolean ledValueList(TransactionCounters counters) {
+        long before = transport.count;
+        counter++;
+        for (int i = 0; i < ledValues.size(); i++) {
+            ledValues.get(i).red = (byte) counter;
+        }
+        boolean result = everloop.write(ledValues);
+        counters.transactions += transport.count - before;
+        return result;
+    }
+}
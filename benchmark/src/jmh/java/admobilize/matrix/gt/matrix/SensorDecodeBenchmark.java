@@ -0,0 +1,48 @@
+package admobilize.matrix.gt.matrix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Decoding the raw MCU registers, no bus involved.
+ */
+@State(Scope.Thread)
+public class SensorDecodeBenchmark {
+
+    private final byte[] block = new byte[0x90];
+    private final SensorSnapshot snapshot = new SensorSnapshot();
+    private IMU imu;
+
+    @Setup
+    public void setup() {
+        new Random(1).nextBytes(block);
+        imu = new IMU(new Wishbone(new FakeSpiTransport()));
+    }
+
+    @Benchmark
+    public void imuByteBuffer(Blackhole bh) {
+        // decoding as done before the readFloat helper, kept as allocation baseline
+        for (int offset = 0x30; offset < 0x60; offset += 4) {
+            bh.consume(ByteBuffer.wrap(block, offset, 4).order(ByteOrder.LITTLE_ENDIAN).getFloat());
+        }
+    }
+
+    @Benchmark
+    public IMU imu() {
+        imu.decode(block, 0x30);
+        return imu;
+    }
+
+    @Benchmark
+    public SensorSnapshot snapshot() {
+        snapshot.decode(imu, block, 0);
+        return snapshot;
+    }
+}
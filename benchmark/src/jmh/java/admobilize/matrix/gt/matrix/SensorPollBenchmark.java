@@ -0,0 +1,64 @@
+package admobilize.matrix.gt.matrix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A full poll of UV, Pressure, Humidity and IMU over the bus.
+ */
+@State(Scope.Thread)
+public class SensorPollBenchmark {
+
+    private CountingTransport transport;
+    private UV uv;
+    private Pressure pressure;
+    private Humidity humidity;
+    private IMU imu;
+    private McuSensors mcuSensors;
+    private SensorScheduler scheduler;
+    private final SensorSnapshot snapshot = new SensorSnapshot();
+
+    @Setup
+    public void setup() {
+        transport = new CountingTransport();
+        Wishbone wb = new Wishbone(transport);
+        uv = new UV(wb);
+        pressure = new Pressure(wb);
+        humidity = new Humidity(wb);
+        imu = new IMU(wb);
+        mcuSensors = new McuSensors(wb);
+        scheduler = new SensorScheduler(wb, new UV(wb), new Pressure(wb), new Humidity(wb), new IMU(wb));
+    }
+
+    @Benchmark
+    public IMU separateReads(TransactionCounters counters) {
+        long before = transport.count;
+        uv.read();
+        pressure.read();
+        humidity.read();
+        imu.read();
+        counters.transactions += transport.count - before;
+        return imu;
+    }
+
+    @Benchmark
+    public SensorSnapshot snapshotRead(TransactionCounters counters) {
+        long before = transport.count;
+        mcuSensors.read(snapshot);
+        counters.transactions += transport.count - before;
+        return snapshot;
+    }
+
+    @Benchmark
+    public long scheduledBatch(TransactionCounters counters) {
+        long before = transport.count;
+        // every sensor due at once: one batch, merged in a single burst
+        long now = System.nanoTime();
+        scheduler.reset(now);
+        long next = scheduler.poll(now);
+        counters.transactions += transport.count - before;
+        return next;
+    }
+}
@@ -0,0 +1,16 @@
+package admobilize.matrix.gt.matrix;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * SPI transactions issued by the benchmark, reported next to the score as a rate:
+ * transactions/s divided by ops/s gives the transactions per operation.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class TransactionCounters {
+
+    public long transactions;
+}
@@ -0,0 +1,50 @@
+package admobilize.matrix.gt.matrix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Header encoding and single word transfers through {@link Wishbone}.
+ */
+@State(Scope.Thread)
+public class WishboneBenchmark {
+
+    private CountingTransport transport;
+    private Wishbone wb;
+    private final byte[] data = new byte[2];
+    private short add;
+
+    @Setup
+    public void setup() {
+        transport = new CountingTransport();
+        wb = new Wishbone(transport);
+    }
+
+    @Benchmark
+    public void encodeHeaders(Blackhole bh) {
+        add = (short) ((add + 1) & 0x3FFF);
+        bh.consume(Wishbone.RD0(add));
+        bh.consume(Wishbone.RD1(add, (short) 1));
+        bh.consume(Wishbone.WR0(add));
+        bh.consume(Wishbone.WR1(add, (short) 1));
+    }
+
+    @Benchmark
+    public Boolean spiRead16(TransactionCounters counters) {
+        long before = transport.count;
+        Boolean result = wb.SpiRead16((short) 0x3800, data, 0);
+        counters.transactions += transport.count - before;
+        return result;
+    }
+
+    @Benchmark
+    public Boolean spiWrite(TransactionCounters counters) {
+        long before = transport.count;
+        Boolean result = wb.SpiWrite((short) 0x2800, data, (short) 0);
+        counters.transactions += transport.count - before;
+        return result;
+    }
+}